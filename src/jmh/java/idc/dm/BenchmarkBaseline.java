@@ -0,0 +1,101 @@
+package idc.dm;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/* Saves the results of a JMH run (in its CSV format) as the baselines of the benchmarks, or checks them against the
+ * baselines. A baseline file holds a "name nanoseconds" line per benchmark, the name including its parameters.
+ *
+ * usage: java idc.dm.BenchmarkBaseline --save RESULTS BASELINE
+ *        java idc.dm.BenchmarkBaseline --check RESULTS BASELINE TOLERANCE-PERCENT
+ */
+public class BenchmarkBaseline {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 3 && args[0].equals("--save")) {
+            saveBaseline(readResults(args[1]), args[2]);
+            System.out.println("Saved baseline to " + args[2]);
+        } else if (args.length == 4 && args[0].equals("--check")) {
+            if (!checkBaseline(readResults(args[1]), args[2], Double.parseDouble(args[3]))) {
+                System.exit(1);
+            }
+        } else {
+            System.err.println("usage: java idc.dm.BenchmarkBaseline --save RESULTS BASELINE");
+            System.err.println("       java idc.dm.BenchmarkBaseline --check RESULTS BASELINE TOLERANCE-PERCENT");
+            System.exit(2);
+        }
+    }
+
+
+    /* Function reads the results of a JMH run.
+     * Input: The path of the CSV results (the benchmarks' scores in ns/op).
+     * Output: The mean time per operation of every benchmark by its name.
+     */
+    private static Map<String, Double> readResults(String path) throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(path));
+        String[] header = splitCsv(lines.get(0));
+        int scoreColumn = Arrays.asList(header).indexOf("Score");
+        Map<String, Double> results = new LinkedHashMap<>();
+        for (String line : lines.subList(1, lines.size())) {
+            String[] fields = splitCsv(line);
+            StringBuilder name = new StringBuilder(fields[0]);
+            for (int i = 0; i < header.length; i++) {
+                if (header[i].startsWith("Param: ") && !fields[i].isEmpty()) {
+                    name.append(':').append(fields[i]);
+                }
+            }
+            results.put(name.toString(), Double.parseDouble(fields[scoreColumn]));
+        }
+        return results;
+    }
+
+
+    // Returns the fields of a CSV line written by JMH (without their quotes).
+    private static String[] splitCsv(String line) {
+        String[] fields = line.split(",", -1);
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = fields[i].trim().replace("\"", "");
+        }
+        return fields;
+    }
+
+
+    // Writes the time per operation of every benchmark to a baseline file, a "name nanoseconds" line each.
+    private static void saveBaseline(Map<String, Double> results, String path) throws IOException {
+        try (PrintWriter writer = new PrintWriter(new FileWriter(path))) {
+            writer.println("# Benchmark baselines (mean ns/op), written by: gradle jmh jmhSaveBaseline");
+            for (Map.Entry<String, Double> result : results.entrySet()) {
+                writer.println(result.getKey() + " " + String.format(Locale.ROOT, "%.1f", result.getValue()));
+            }
+        }
+    }
+
+
+    /* Function compares the results against a baseline file.
+     * Input: The results, the baseline file's path and the percentage a benchmark may be slower than its baseline.
+     * Output: A boolean variable indicating if no benchmark regressed.
+     */
+    private static boolean checkBaseline(Map<String, Double> results, String path, double tolerance) throws IOException {
+        Map<String, Double> baseline = new HashMap<>();
+        for (String line : Files.readAllLines(Paths.get(path))) {
+            String[] fields = line.trim().split("\\s+");
+            if (fields.length == 2 && !line.startsWith("#")) {
+                baseline.put(fields[0], Double.parseDouble(fields[1]));
+            }
+        }
+        boolean passed = true;
+        for (Map.Entry<String, Double> result : results.entrySet()) {
+            Double expected = baseline.get(result.getKey());
+            if (expected == null) {
+                System.out.println(result.getKey() + ": no baseline");
+                continue;
+            }
+            double change = (result.getValue() / expected - 1) * 100;
+            boolean regressed = change > tolerance;
+            passed &= !regressed;
+            System.out.println(String.format("%-56s %+7.1f%% %s", result.getKey(), change, regressed ? "REGRESSED" : "ok"));
+        }
+        return passed;
+    }
+}
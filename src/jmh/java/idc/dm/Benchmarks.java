@@ -0,0 +1,168 @@
+package idc.dm;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/* JMH benchmarks of the hot paths. Every benchmark performs a single operation and hands its result to the
+ * blackhole, so the operation cannot be optimized away. The results of a run can be saved as the baselines and
+ * checked against them later to catch performance regressions (see BenchmarkBaseline).
+ *
+ * usage: gradle jmh [-PjmhInclude=REGEX] && gradle jmhCheck
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(1)
+public class Benchmarks {
+    static final int CHUNK_SIZE = 262144;                     // The chunk size of the downloads (256KB).
+    static final int LARGE_FILE_CHUNKS = 400_000;             // Number of chunks of a 100GB file.
+
+    // A 100GB download, half of it written in runs of 1 to 64 chunks (a resumed download of many connections).
+    @State(Scope.Benchmark)
+    public static class FragmentedDownload {
+        Metadata metadata;
+        int[] starts;                   // Chunks the ranges of the benchmarks start at, taken in turn.
+        int next;
+        String displayRanges;           // The ranges of a request of 256 chunks.
+        Path workDirectory;
+        String metadataPath;            // The legacy metadata file of the download.
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            Random random = new Random(42);
+            metadata = new Metadata(LARGE_FILE_CHUNKS, CHUNK_SIZE, CHUNK_SIZE / 2);
+            for (int i = 0; i < LARGE_FILE_CHUNKS; ) {
+                int run = 1 + random.nextInt(64);
+                if (random.nextBoolean()) {
+                    for (int j = i; j < Math.min(i + run, LARGE_FILE_CHUNKS); j++) {
+                        metadata.downloadedChunk(j);
+                    }
+                }
+                i += run;
+            }
+            starts = new int[1024];
+            for (int i = 0; i < starts.length; i++) {
+                starts[i] = random.nextInt(LARGE_FILE_CHUNKS);
+            }
+            displayRanges = metadata.getRanges(starts[0], starts[0] + 255);
+            workDirectory = Files.createTempDirectory("idcdm-benchmarks");
+            metadataPath = workDirectory.resolve("bench.metadata.tmp").toString();
+            MyTools.serializeMetadata(metadata, metadataPath);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            deleteDirectory(workDirectory.toFile());
+        }
+
+        // Returns the chunk the next range starts at.
+        int nextStart() {
+            return starts[next++ & (starts.length - 1)];
+        }
+    }
+
+    // Writing 256KB chunks into a 1GB .tmp file at random offsets, directly or memory-mapped. The writer is built
+    // from its own parts (the .tmp file's channel and the journal, no hasher nor metrics), so only it is measured.
+    @State(Scope.Benchmark)
+    public static class ChunkWrite {
+        @Param({"direct", "mmap"})
+        String mode;
+        final int NUMBER_OF_CHUNKS = 4096;
+        Path workDirectory;
+        ProgressJournal journal;
+        RandomAccessFile tmpFile;
+        ChunkWriter writer;
+        ByteBuffer data;
+        int checksum;
+        Random random;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            workDirectory = Files.createTempDirectory("idcdm-benchmarks");
+            String tmpPath = workDirectory.resolve("bench.tmp").toString();
+            Metadata metadata = new Metadata(NUMBER_OF_CHUNKS, CHUNK_SIZE, CHUNK_SIZE);
+            journal = ProgressJournal.create(metadata, null, tmpPath + ".metadata", tmpPath + ".metadata_copy");
+            tmpFile = MyTools.createRandomAccessFile(tmpPath, (long) NUMBER_OF_CHUNKS * CHUNK_SIZE);
+            if (journal == null || tmpFile == null) {
+                throw new IOException("Could not create the files of the chunk write benchmark.");
+            }
+            writer = new ChunkWriter(tmpFile.getChannel(), journal, null, null, mode.equals("mmap"), 0, 0,
+                    percent -> {});
+            data = ByteBuffer.allocateDirect(CHUNK_SIZE);
+            new Random(7).ints(CHUNK_SIZE / Integer.BYTES).forEach(data::putInt);
+            checksum = MyTools.checksum(data.flip());
+            random = new Random(42);
+
+            // The chunks are rewritten over and over, so the file is recorded as complete (its status is not
+            // reported again).
+            for (int i = 0; i < NUMBER_OF_CHUNKS; i++) {
+                metadata.downloadedChunk(i);
+            }
+            writer.printStatus();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            journal.close();
+            tmpFile.close();
+            deleteDirectory(workDirectory.toFile());
+        }
+    }
+
+
+    @Benchmark
+    public void metadataGetRanges256Chunks(FragmentedDownload download, Blackhole blackhole) {
+        int start = download.nextStart();
+        blackhole.consume(download.metadata.getRanges(start, Math.min(start + 255, LARGE_FILE_CHUNKS - 1)));
+    }
+
+    @Benchmark
+    public void metadataGetLastChunkInRange256Chunks(FragmentedDownload download, Blackhole blackhole) {
+        blackhole.consume(download.metadata.getLastChunkInRange(download.nextStart(), 256));
+    }
+
+    @Benchmark
+    public void metadataDownloadStatus(FragmentedDownload download, Blackhole blackhole) {
+        blackhole.consume(download.metadata.downloadStatus());
+    }
+
+    @Benchmark
+    public void metadataSerialize100GB(FragmentedDownload download, Blackhole blackhole) {
+        blackhole.consume(MyTools.serializeMetadata(download.metadata, download.metadataPath));
+    }
+
+    @Benchmark
+    public void metadataDeserialize100GB(FragmentedDownload download, Blackhole blackhole) {
+        blackhole.consume(MyTools.deserializeMetadata(download.metadataPath));
+    }
+
+    @Benchmark
+    public void rangesConvertDisplayToRequest(FragmentedDownload download, Blackhole blackhole) {
+        blackhole.consume(MyTools.convertRangesDisplayToRequest(download.displayRanges));
+    }
+
+    @Benchmark
+    public void writerWrite(ChunkWrite write, Blackhole blackhole) throws IOException {
+        write.writer.write(new Chunk(write.random.nextInt(write.NUMBER_OF_CHUNKS), write.data.clear(), write.checksum));
+        blackhole.consume(write.data.position());
+    }
+
+
+    // Deletes a directory and its files.
+    static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
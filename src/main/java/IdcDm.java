@@ -0,0 +1,260 @@
+import idc.dm.*;
+
+import java.io.IOException;
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/* The command line of the download manager, on top of the idc.dm library: reads the arguments and the URL-list
+ * file, and prints the progress of the downloads.
+ */
+public class IdcDm {
+
+    public static void main(String[] args) {
+
+        /*
+         *  Pre-processing
+         */
+
+        // Usage
+        if (args.length == 0) {
+            System.out.println(DownloadOptions.usage());
+            return;
+        }
+
+        // Reading arguments.
+        DownloadOptions options;
+        try {
+            options = DownloadOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Download failed");
+            return;
+        }
+
+        // HttpURLConnection keeps only 5 idle connections per host alive by default, fewer than the ranges reuse (a
+        // JVM-wide setting, so it is made by the command line rather than by the library).
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", String.valueOf(Math.max(5, options.getMaxConnections())));
+        }
+
+        // The manager holds the connections, threads, buffers, metrics and cache shared by all the downloads.
+        DownloadManager manager;
+        try {
+            manager = DownloadManager.create(options);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Download failed");
+            return;
+        }
+        try {
+            if (options.isBatch()) {
+                downloadBatch(manager, options);
+            } else {
+                downloadFile(manager, options);
+            }
+        } finally {
+            manager.close();
+        }
+    }
+
+
+    /* Function downloads a single file, mirrors of which are given as the URL or in the URL-list file.
+     * Input: The manager and the options.
+     */
+    private static void downloadFile(DownloadManager manager, DownloadOptions options) {
+        URL[] urls;
+
+        // In case a URL was given as the first input
+        if (isURL(options.getSource())) {
+            urls = new URL[1];
+            urls[0] = createURLFromString(options.getSource());
+            if (urls[0] == null) {
+                System.err.println("Given URL is mal-formatted.");
+                return;
+            }
+        }
+
+        // In case a file path was given as the first input
+        else {
+            urls = getURLsFromFile(options.getSource());
+            if (urls == null) {
+                System.err.println("Given file does not exist or a URL in the given file is mal-formatted.");
+                System.err.println("Download failed");
+                return;
+            }
+        }
+
+        // Downloading the file (mirrors of which are given in urls).
+        boolean success;
+        try {
+            success = manager.download(urls, new ConsoleListener(false)).get();
+        } catch (InterruptedException | ExecutionException e) {
+            success = false;
+        }
+        if (success) {
+            System.out.println("Download succeeded");
+        } else {
+            System.err.println("Download failed");
+        }
+    }
+
+
+    /* Function downloads a batch of different files at once. Up to MAX-CONCURRENT-CONNECTIONS files are downloaded
+     * concurrently, and their connections are taken from a single budget, so a small file only holds a connection
+     * while it is downloaded and the rest of the budget goes to the large files.
+     * Input: The manager and the options.
+     */
+    private static void downloadBatch(DownloadManager manager, DownloadOptions options) {
+        URL[][] files = isURL(options.getSource()) ? null : getURLGroupsFromFile(options.getSource());
+        if (files == null) {
+            System.err.println("Given file does not exist or a URL in the given file is mal-formatted.");
+            System.err.println("Download failed");
+            return;
+        }
+        ConsoleListener listener = new ConsoleListener(true);
+        Map<String, Future<Boolean>> results = new LinkedHashMap<>();
+
+        for (URL[] mirrors : files) {
+            String fileName = DownloadManager.getFileName(mirrors[0]);
+
+            // Every file has its own .tmp and metadata files, so a file name may appear only once in the batch.
+            if (results.containsKey(fileName)) {
+                listener.error(fileName, "Appears more than once in the given file, skipped.");
+                continue;
+            }
+            results.put(fileName, manager.download(mirrors, listener));
+        }
+
+        int succeeded = 0;
+        for (Map.Entry<String, Future<Boolean>> result : results.entrySet()) {
+            try {
+                if (result.getValue().get()) {
+                    succeeded++;
+                } else {
+                    System.err.println("[" + result.getKey() + "] Download failed");
+                }
+            } catch (InterruptedException | ExecutionException e) {
+                System.err.println("[" + result.getKey() + "] Download failed");
+            }
+        }
+
+        System.out.println("Downloaded " + succeeded + " of " + files.length + " files");
+        if (succeeded == files.length) {
+            System.out.println("Download succeeded");
+        } else {
+            System.err.println("Download failed");
+        }
+    }
+
+
+    /* Function validating if a given string is a URL.
+     * Input: a string representing a URL.
+     * Output: Boolean variable indicating if the given input fits a URL pattern.
+     */
+    private static boolean isURL(String urlString) {
+        try {
+            URL url = new URL(urlString);
+            url.toURI();
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+
+    /* Function creating URL object from given string representing URL.
+     * Input: A string representing a URL.
+     * Output: A URL object.
+     * Assumptions: - Given string is a well formed URLs.
+     */
+    private static URL createURLFromString(String stringURL) {
+        try {
+            return new URL(stringURL);
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+
+    /* Function extracting URL address from a given file.
+     * Input: A string representing the file's path.
+     * Output: An array of type URL of all the URLs in the file.
+     * Assumptions: - Given file path exists.
+     * 			    - All data written in given file are well formed URLs.
+     */
+    private static URL[] getURLsFromFile(String filePath) {
+        List<String> urlsList;
+        URL[] urls;
+
+        try {
+            urlsList = Files.readAllLines(Paths.get(filePath));
+        } catch (IOException ignored) {
+            return null;
+        }
+        urls = new URL[urlsList.size()];
+        for (int i = 0; i < urlsList.size(); i++) {
+            urls[i] = createURLFromString(urlsList.get(i));
+            if (urls[i] == null) {
+                return null;
+            }
+        }
+        return urls;
+    }
+
+    /* Function extracting the URL addresses of several files from a given file: a line per file, which may list
+     * mirrors of the file separated by whitespace. Empty lines are skipped.
+     * Input: A string representing the file's path.
+     * Output: An array holding the mirrors of each file (or null if the file does not exist or a URL is mal-formatted).
+     */
+    private static URL[][] getURLGroupsFromFile(String filePath) {
+        List<URL[]> groups = new ArrayList<>();
+
+        try {
+            for (String line : Files.readAllLines(Paths.get(filePath))) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                String[] mirrors = line.trim().split("\\s+");
+                URL[] urls = new URL[mirrors.length];
+                for (int i = 0; i < mirrors.length; i++) {
+                    urls[i] = createURLFromString(mirrors[i]);
+                    if (urls[i] == null) {
+                        return null;
+                    }
+                }
+                groups.add(urls);
+            }
+        } catch (IOException ignored) {
+            return null;
+        }
+        return groups.toArray(new URL[0][]);
+    }
+
+
+    // Prints the progress of the downloads, each line prefixed by the name of its file in a batch.
+    private static class ConsoleListener implements DownloadListener {
+        private boolean labelled;   // T: the lines are prefixed by the name of their file.
+
+        ConsoleListener(boolean labelled) {
+            this.labelled = labelled;
+        }
+
+        public void progress(String fileName, int percent) {
+            this.message(fileName, "Downloaded " + percent + "%");
+        }
+
+        public void message(String fileName, String line) {
+            System.out.println(this.labelOf(fileName) + line);
+        }
+
+        public void error(String fileName, String line) {
+            System.err.println(this.labelOf(fileName) + line);
+        }
+
+        private String labelOf(String fileName) {
+            return this.labelled ? "[" + fileName + "] " : "";
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package idc.dm;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+class BufferPool {
+    private BlockingQueue<ByteBuffer> freeBuffers;  // Buffers returned to the pool, ready to be borrowed again.
+    private int bufferSize;                         // Number in bytes each buffer contains.
+    private int capacity;                           // Maximal number of buffers the pool allocates.
+    private int allocatedBuffers;                   // Number of buffers allocated so far (allocated lazily).
+
+    BufferPool(int bufferSize, long budgetInBytes) {
+        this.freeBuffers = new LinkedBlockingQueue<>();
+        this.bufferSize = bufferSize;
+        this.capacity = (int) Math.max(1, Math.min(Integer.MAX_VALUE, budgetInBytes / bufferSize));
+        this.allocatedBuffers = 0;
+    }
+
+
+    /* Function borrows a buffer from the pool. While the whole budget is borrowed the caller waits for a buffer to be
+     * returned, which holds the downloaders back when the disk is slower than the network.
+     * Output: A cleared buffer.
+     */
+    ByteBuffer acquire() throws InterruptedException {
+        ByteBuffer buffer = this.freeBuffers.poll();
+        if (buffer == null) {
+            synchronized (this) {
+                if (this.allocatedBuffers < this.capacity) {
+                    this.allocatedBuffers++;
+                    return ByteBuffer.allocateDirect(this.bufferSize);
+                }
+            }
+            buffer = this.freeBuffers.take();
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+
+    /* Function returns a borrowed buffer to the pool.
+     * Input: The buffer.
+     */
+    void release(ByteBuffer buffer) {
+        this.freeBuffers.add(buffer);
+    }
+
+
+    // Returns the maximal number of buffers the pool allocates.
+    int getCapacity() {
+        return this.capacity;
+    }
+}
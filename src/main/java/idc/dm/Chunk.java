@@ -0,0 +1,32 @@
+package idc.dm;
+
+import java.nio.ByteBuffer;
+
+class Chunk {
+    private int id;             // An integer for the uid of the chunk
+    private ByteBuffer data;    // A buffer of the data the chunk contains (positioned at the chunk's first byte).
+    private int checksum;       // The CRC32C checksum of the chunk's data.
+    static final Chunk END_OF_CHUNKS = new Chunk(-1, null, 0);     // Queued after the last chunk of a download.
+
+    Chunk(int id, ByteBuffer data, int checksum) {
+        this.id = id;
+        this.data = data;
+        this.checksum = checksum;
+    }
+
+    // Returns the ID of the chunk.
+    int getId() {
+        return this.id;
+    }
+
+    // Returns the data of the chunk.
+    ByteBuffer getData() {
+        return this.data;
+    }
+
+    // Returns the CRC32C checksum of the chunk's data.
+    int getChecksum() {
+        return this.checksum;
+    }
+
+}
@@ -0,0 +1,113 @@
+package idc.dm;
+
+class ChunkRange {
+    private int ownerID;        // The id of the downloader the range is allocated for.
+    private int firstChunk;     // Location of the first chunk in the range.
+    private int nextChunk;      // Location of the next chunk in the range the owner did not claim yet.
+    private int lastChunk;      // Location of the last chunk in the range (moves back when the range is split).
+    private long retryTime;     // Time (System.nanoTime) from which a failed range may be retried.
+    private int inFlightChunk;  // Location of the chunk the owner is reading (-1 if none).
+    private long inFlightSince; // Time (System.nanoTime) the owner claimed the chunk it is reading.
+    private ChunkRange copy;    // The range downloading the same chunks in the endgame (null if none).
+    private volatile boolean cancelled;         // T: another copy of the chunk the owner is reading completed first.
+    private volatile RangeResponse response;    // The answer the owner is reading (null between requests).
+
+    ChunkRange(int ownerID, int firstChunk, int lastChunk) {
+        this.ownerID = ownerID;
+        this.firstChunk = firstChunk;
+        this.nextChunk = firstChunk;
+        this.lastChunk = lastChunk;
+        this.inFlightChunk = -1;
+    }
+
+    // Returns the id of the range's owner.
+    int getOwnerID() {
+        return this.ownerID;
+    }
+
+    // Returns the location of the first chunk in the range.
+    int getFirstChunk() {
+        return this.firstChunk;
+    }
+
+    // Returns the location of the next chunk the owner did not claim yet.
+    int getNextChunk() {
+        return this.nextChunk;
+    }
+
+    // Returns the location of the last chunk in the range.
+    int getLastChunk() {
+        return this.lastChunk;
+    }
+
+    // Returns the number of chunks in the range the owner did not claim yet.
+    int getRemainingChunks() {
+        return this.lastChunk - this.nextChunk + 1;
+    }
+
+    void setNextChunk(int nextChunk) {
+        this.nextChunk = nextChunk;
+    }
+
+    void setLastChunk(int lastChunk) {
+        this.lastChunk = lastChunk;
+    }
+
+    // Returns the time (System.nanoTime) from which a failed range may be retried.
+    long getRetryTime() {
+        return this.retryTime;
+    }
+
+    void setRetryTime(long retryTime) {
+        this.retryTime = retryTime;
+    }
+
+    // Returns the location of the chunk the owner is reading (-1 if none).
+    int getInFlightChunk() {
+        return this.inFlightChunk;
+    }
+
+    // Returns the time (System.nanoTime) the owner claimed the chunk it is reading.
+    long getInFlightSince() {
+        return this.inFlightSince;
+    }
+
+    void setInFlightChunk(int inFlightChunk, long inFlightSince) {
+        this.inFlightChunk = inFlightChunk;
+        this.inFlightSince = inFlightSince;
+    }
+
+    // Returns the range downloading the same chunks in the endgame (null if none).
+    ChunkRange getCopy() {
+        return this.copy;
+    }
+
+    void setCopy(ChunkRange copy) {
+        this.copy = copy;
+    }
+
+    // Returns true if another copy of the chunk the owner is reading completed first.
+    boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    /* Function cancels the range, aborting the answer its owner is reading (if any).
+     */
+    void cancel() {
+        this.cancelled = true;
+        RangeResponse currentResponse = this.response;
+        if (currentResponse != null) {
+            currentResponse.abort();
+        }
+    }
+
+    /* Function sets the answer the owner is reading, so it can be aborted when the range is cancelled.
+     * Input: The answer (null once it was read).
+     * Output: A boolean variable indicating if the range is still running (F: it was cancelled).
+     */
+    boolean setResponse(RangeResponse response) {
+        this.response = response;
+        return !this.cancelled;
+    }
+
+}
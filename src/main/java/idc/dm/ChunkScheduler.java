@@ -0,0 +1,314 @@
+package idc.dm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+class ChunkScheduler {
+    private Metadata metadata;
+    private FileDownload download;              // The download of the file the lines are printed for.
+    private List<ChunkRange> activeRanges;      // Ranges currently owned by a running downloader.
+    private List<ChunkRange> pendingRanges;     // Ranges whose owner failed or stopped, waiting to be retried.
+    private Map<Integer, Integer> chunkFailures;    // Number of times each failed chunk failed.
+    private int lastClaimedChunk;               // Every missing chunk up to this location was already handed out.
+    private int maxChunksInRun;                 // Upper bound on the number of chunks handed out in a single run
+                                                // (runs of the file's tail hold fewer bytes, in its finer chunks).
+    private boolean spanDownloadedChunks;       // T: a run spans downloaded chunks (its missing runs are requested at once).
+    private int endgameChunks;                  // Idle downloaders duplicate ranges once this many chunks are missing.
+    private boolean stopped;                    // T: the download cannot go on, no range is handed out anymore.
+    final int RUNS_PER_CONNECTION = 4;          // Splitting the remaining chunks to 4 runs per connection.
+    final int MIN_CHUNKS_TO_STEAL = 2;          // A range is only split when its owner has at least 2 chunks left.
+    final int MAX_CHUNK_RETRIES = 5;            // Giving up on a chunk (until the next run) after it failed 5 times.
+    final int ENDGAME_CHUNKS_PER_CONNECTION = 2;    // Starting the endgame at 2 missing chunks per connection.
+    final long BASE_BACKOFF_NANOS = 500_000_000L;       // Retrying a failed chunk after 0.5 seconds, doubled per failure.
+    final long MAX_BACKOFF_NANOS = 30_000_000_000L;     // Up to 30 seconds.
+
+    ChunkScheduler(Metadata metadata, int numberOfConnections, boolean spanDownloadedChunks, FileDownload download) {
+        this.metadata = metadata;
+        this.spanDownloadedChunks = spanDownloadedChunks;
+        this.download = download;
+        this.activeRanges = new ArrayList<>();
+        this.pendingRanges = new ArrayList<>();
+        this.chunkFailures = new HashMap<>();
+        this.lastClaimedChunk = -1;
+        this.endgameChunks = numberOfConnections * ENDGAME_CHUNKS_PER_CONNECTION;
+        int runs = numberOfConnections * RUNS_PER_CONNECTION;
+        this.maxChunksInRun = Math.max(1, (int) Math.ceil(((double) metadata.getRemainingChunkNumber()) / runs));
+    }
+
+
+    /* Function hands a downloader the next range of chunks to download. A pending range whose backoff is over is
+     * preferred, then the next missing run in the metadata, then the back half of the range with the most chunks
+     * left (i.e. the slowest downloader), and in the endgame a copy of the unfinished chunks of another range.
+     * If only pending ranges are left, waits for the first backoff to end.
+     * Input: An integer corresponding to the id of the requesting downloader.
+     * Output: The range allocated for the downloader (if nothing is left to download or it was stopped, returns null).
+     */
+    synchronized ChunkRange nextRange(int downloaderID) throws InterruptedException {
+        while (!this.stopped) {
+            ChunkRange range = this.nextReadyPendingRange(downloaderID);
+            if (range == null) {
+                range = this.nextMissingRun(downloaderID);
+            }
+            if (range == null) {
+                range = this.stealRange(downloaderID);
+            }
+            if (range == null) {
+                range = this.copyRange(downloaderID);
+            }
+            if (range != null) {
+                this.activeRanges.add(range);
+                return range;
+            }
+            if (this.pendingRanges.isEmpty()) {
+                return null;
+            }
+            long waitNanos = Long.MAX_VALUE;
+            for (ChunkRange pendingRange : this.pendingRanges) {
+                waitNanos = Math.min(waitNanos, pendingRange.getRetryTime() - System.nanoTime());
+            }
+            if (waitNanos > 0) {
+                this.wait(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+            }
+        }
+        return null;
+    }
+
+
+    // Returns a pending range whose backoff is over, allocated for the downloader (or null if there is none).
+    private ChunkRange nextReadyPendingRange(int downloaderID) {
+        long now = System.nanoTime();
+        for (int i = 0; i < this.pendingRanges.size(); i++) {
+            ChunkRange pendingRange = this.pendingRanges.get(i);
+            if (pendingRange.getRetryTime() - now <= 0) {
+                this.pendingRanges.remove(i);
+                return new ChunkRange(downloaderID, pendingRange.getNextChunk(), pendingRange.getLastChunk());
+            }
+        }
+        return null;
+    }
+
+
+    // Returns the next run of missing chunks no downloader was given yet (or null if there is none). When runs span
+    // downloaded chunks, a run holds up to the same number of missing chunks with the downloaded chunks between them.
+    private ChunkRange nextMissingRun(int downloaderID) {
+        int firstChunk = this.metadata.getNextChunkToDownload(this.lastClaimedChunk);
+        if (firstChunk == -1) {
+            return null;
+        }
+        int lastChunk = firstChunk;
+        if (this.spanDownloadedChunks) {
+            lastChunk = this.metadata.getLastChunkInRange(firstChunk, this.maxChunksInRun);
+            if (lastChunk == -1) {
+                lastChunk = this.metadata.getLength() - 1;
+            }
+        }
+        while (lastChunk + 1 < this.metadata.getLength() && (lastChunk - firstChunk + 1) < this.maxChunksInRun
+                && !this.metadata.isChunkDownloaded(lastChunk + 1)) {
+            lastChunk++;
+        }
+        this.lastClaimedChunk = lastChunk;
+        return new ChunkRange(downloaderID, firstChunk, lastChunk);
+    }
+
+
+    // Returns the back half of the active range with the most chunks left (or null if no range is worth splitting).
+    private ChunkRange stealRange(int downloaderID) {
+        ChunkRange victim = null;
+        for (ChunkRange activeRange : this.activeRanges) {
+            if (activeRange.getCopy() != null) {
+                continue;       // Ranges downloaded twice in the endgame keep their chunks.
+            }
+            if (victim == null || activeRange.getRemainingChunks() > victim.getRemainingChunks()) {
+                victim = activeRange;
+            }
+        }
+        if (victim == null || victim.getRemainingChunks() < MIN_CHUNKS_TO_STEAL) {
+            return null;
+        }
+        int splitChunk = victim.getNextChunk() + (victim.getRemainingChunks() / 2);
+        ChunkRange range = new ChunkRange(downloaderID, splitChunk, victim.getLastChunk());
+        victim.setLastChunk(splitChunk - 1);
+        this.download.printLine("[" + downloaderID + "] Took over chunks " + splitChunk + "-"
+                + range.getLastChunk() + " from [" + victim.getOwnerID() + "]");
+        return range;
+    }
+
+
+    /* Function starts downloading the unfinished chunks of another range once again in the endgame (when few chunks
+     * are missing and none is left to hand out or take over), so the download does not finish at the speed of the
+     * slowest connection. The range whose chunk has been read for the longest time is copied, from that chunk on.
+     * Input: An integer corresponding to the id of the requesting downloader.
+     * Output: The copy of the range (or null if it is not the endgame or no range is worth copying).
+     */
+    private ChunkRange copyRange(int downloaderID) {
+        if (this.metadata.getRemainingChunkNumber() > this.endgameChunks) {
+            return null;
+        }
+        ChunkRange victim = null;
+        for (ChunkRange activeRange : this.activeRanges) {
+            boolean copied = activeRange.getCopy() != null && this.activeRanges.contains(activeRange.getCopy());
+            if (copied || activeRange.isCancelled() || this.firstUnfinishedChunk(activeRange) == -1) {
+                continue;
+            }
+            if (victim == null || this.inFlightTime(activeRange) > this.inFlightTime(victim)) {
+                victim = activeRange;
+            }
+        }
+        if (victim == null) {
+            return null;
+        }
+        ChunkRange range = new ChunkRange(downloaderID, this.firstUnfinishedChunk(victim), victim.getLastChunk());
+        range.setCopy(victim);
+        victim.setCopy(range);
+        this.download.printLine("[" + downloaderID + "] Also downloading chunks " + range.getFirstChunk() + "-"
+                + range.getLastChunk() + " of [" + victim.getOwnerID() + "] (endgame)");
+        return range;
+    }
+
+
+    // Returns the first chunk of a range no copy of which completed yet: the chunk its owner reads, or else the next
+    // missing one (-1 if none is left in the range).
+    private int firstUnfinishedChunk(ChunkRange range) {
+        int chunkID = range.getInFlightChunk();
+        if (chunkID != -1 && this.metadata.isChunkInFlight(chunkID) && !this.metadata.isChunkDownloaded(chunkID)) {
+            return chunkID;
+        }
+        chunkID = this.metadata.getNextChunkToDownload(range.getNextChunk() - 1);
+        return (chunkID != -1 && chunkID <= range.getLastChunk()) ? chunkID : -1;
+    }
+
+    // Returns the time in nanoseconds the owner of a range has been reading its chunk (0 if it reads none).
+    private long inFlightTime(ChunkRange range) {
+        return range.getInFlightChunk() == -1 ? 0 : System.nanoTime() - range.getInFlightSince();
+    }
+
+
+    /* Function checks if every missing chunk was handed out and no range waits to be retried (or the download was
+     * stopped, so no range is handed out anymore).
+     * Output: A boolean variable corresponding to the required answer.
+     */
+    synchronized boolean isDrained() {
+        return this.stopped
+                || (this.pendingRanges.isEmpty() && this.metadata.getNextChunkToDownload(this.lastClaimedChunk) == -1);
+    }
+
+
+    /* Function claims a chunk of a range for its owner right before the owner reads it. A chunk another copy of which
+     * already completed is not claimed again, even before that copy is written (in the queue mode it waits for the
+     * writer thread meanwhile), so exactly one copy of a chunk is written and recorded.
+     * Input: The range and an integer corresponding to the chunk's location in the array.
+     * Output: A boolean variable indicating if the chunk still belongs to the range (F: it was taken over, or
+     *         another copy of it completed in the endgame).
+     */
+    synchronized boolean claimChunk(ChunkRange range, int chunkID) {
+        if (range.isCancelled() || chunkID > range.getLastChunk() || this.metadata.isChunkLanded(chunkID)) {
+            return false;
+        }
+        range.setNextChunk(chunkID + 1);
+        range.setInFlightChunk(chunkID, System.nanoTime());
+        this.metadata.inFlightChunk(chunkID);
+        return true;
+    }
+
+
+    /* Function completes a chunk its owner read, right before the owner writes it. Only the first copy of a chunk to
+     * complete is written: the copy of the range in the endgame is cancelled if it reads the same chunk.
+     * Input: The range and an integer corresponding to the chunk's location in the array.
+     * Output: A boolean variable indicating if the chunk should be written (F: another copy of it completed first).
+     */
+    synchronized boolean completeChunk(ChunkRange range, int chunkID) {
+        range.setInFlightChunk(-1, 0);
+        if (range.isCancelled() || this.metadata.isChunkDownloaded(chunkID) || !this.metadata.landedChunk(chunkID)) {
+            return false;
+        }
+        ChunkRange copy = range.getCopy();
+        if (copy != null && copy.getInFlightChunk() == chunkID && this.activeRanges.contains(copy)) {
+            copy.cancel();
+        }
+        return true;
+    }
+
+
+    /* Function stops handing out ranges and cancels the active ones (aborting the answers their owners are reading),
+     * when the download cannot go on.
+     */
+    synchronized void stop() {
+        this.stopped = true;
+        this.pendingRanges.clear();
+        for (ChunkRange activeRange : this.activeRanges) {
+            activeRange.cancel();
+        }
+        this.notifyAll();
+    }
+
+
+    // Returns true if the download was stopped.
+    synchronized boolean isStopped() {
+        return this.stopped;
+    }
+
+
+    /* Function releases a range whose owner read all of its chunks.
+     * Input: The finished range.
+     */
+    synchronized void finishedRange(ChunkRange range) {
+        this.activeRanges.remove(range);
+    }
+
+
+    /* Function releases a range whose owner stopped running, so its unfinished chunks are handed to another
+     * downloader right away.
+     * Input: The abandoned range and an integer corresponding to the location of its first unfinished chunk.
+     */
+    synchronized void abandonedRange(ChunkRange range, int firstUnfinishedChunk) {
+        this.activeRanges.remove(range);
+        if (this.isCoveredByCopy(range)) {
+            return;
+        }
+        this.addPendingRange(firstUnfinishedChunk, range.getLastChunk(), System.nanoTime());
+    }
+
+
+    /* Function releases a range that failed at one of its chunks. Its unfinished chunks are retried after an
+     * exponential backoff with jitter, unless the failed chunk ran out of retries, in which case it is given up on
+     * (it stays missing in the metadata for the next run) and only the chunks after it are retried.
+     * Input: The failed range and an integer corresponding to the location of the chunk it failed at.
+     */
+    synchronized void failedRange(ChunkRange range, int failedChunk) {
+        this.activeRanges.remove(range);
+        if (this.isCoveredByCopy(range)) {
+            return;     // The copy of the range in the endgame downloads its chunks.
+        }
+        int failures = this.chunkFailures.merge(failedChunk, 1, Integer::sum);
+        if (failures > MAX_CHUNK_RETRIES) {
+            this.download.printError("Chunk " + failedChunk + " failed " + failures + " times, giving up on it.");
+            this.addPendingRange(failedChunk + 1, range.getLastChunk(), System.nanoTime());
+            return;
+        }
+        long backoff = Math.min(MAX_BACKOFF_NANOS, BASE_BACKOFF_NANOS << (failures - 1));
+        long jitter = ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        this.addPendingRange(failedChunk, range.getLastChunk(), System.nanoTime() + backoff / 2 + jitter);
+    }
+
+
+    // Returns true if the unfinished chunks of a range are downloaded by the range's copy in the endgame.
+    private boolean isCoveredByCopy(ChunkRange range) {
+        ChunkRange copy = range.getCopy();
+        return copy != null && this.activeRanges.contains(copy) && !copy.isCancelled()
+                && copy.getLastChunk() >= range.getLastChunk();
+    }
+
+
+    // Adds the chunks between the given locations to the pending ranges, to be handed out from the given time.
+    private void addPendingRange(int firstChunk, int lastChunk, long retryTime) {
+        if (firstChunk <= lastChunk) {
+            ChunkRange pendingRange = new ChunkRange(-1, firstChunk, lastChunk);
+            pendingRange.setRetryTime(retryTime);
+            this.pendingRanges.add(pendingRange);
+            this.notifyAll();
+        }
+    }
+}
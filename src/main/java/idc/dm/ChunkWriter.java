@@ -0,0 +1,374 @@
+package idc.dm;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+class ChunkWriter {
+    private FileChannel channel;            // The channel of the .tmp file.
+    private Metadata metadata;
+    private ProgressJournal journal;
+    private int downloadStatus;             // The last download percentage printed.
+    private IntConsumer progress;           // Reports the download percentage (to the download's listener).
+    private MappedByteBuffer[] windows;     // Windows of the memory-mapped .tmp file (null when it is not mapped).
+    private long windowSize;                // Number in bytes each window maps (a multiple of the chunk size).
+    private FileHasher hasher;              // Digests the written file (null when it is not verified).
+    private DownloadMetrics metrics;        // Measures the latency of the writes and of the journal (null: not measured).
+    private long commitBytes;               // Committing a batch once it holds this many bytes (0: never by size).
+    private long commitNanos;               // Committing a batch once it is this old (0: never by age).
+    private int[] batchChunks;              // The written chunks waiting to be committed to the journal.
+    private int[] batchChecksums;           // The CRC32C checksums of the chunks waiting to be committed.
+    private int batchSize;                  // Number of chunks waiting to be committed.
+    private long batchBytes;                // Number of bytes of the chunks waiting to be committed.
+    private long batchStart;                // The time the first chunk of the batch was written at.
+    private boolean committing;             // T: a batch is being committed (the next one keeps growing meanwhile).
+    final long MAX_WINDOW_SIZE = 1L << 30;            // Mapping the .tmp file in windows of up to 1GB.
+
+    /* Written chunks are committed to the journal in batches: the data of the whole batch is forced to the storage
+     * device once, and only then are its chunks recorded in the journal and the journal forced, so a chunk the
+     * journal records after a crash was durable before it was recorded. With neither a size nor an age to commit by,
+     * chunks are recorded right away and nothing is forced until the end of the download.
+     */
+    ChunkWriter(FileChannel channel, ProgressJournal journal, FileHasher hasher, DownloadMetrics metrics,
+                boolean mapped, long commitBytes, long commitMillis, IntConsumer progress) throws IOException {
+        this.channel = channel;
+        this.hasher = hasher;
+        this.metrics = metrics;
+        this.progress = progress;
+        this.journal = journal;
+        this.metadata = journal.getMetadata();
+        this.downloadStatus = -1;
+        this.commitBytes = commitBytes;
+        this.commitNanos = commitMillis * 1_000_000;
+        this.batchChunks = new int[16];
+        this.batchChecksums = new int[16];
+        if (mapped) {
+            long chunkSize = this.metadata.getChunkSize();
+            this.windowSize = Math.max(chunkSize, (MAX_WINDOW_SIZE / chunkSize) * chunkSize);
+            this.windows = new MappedByteBuffer[(int) ((channel.size() + this.windowSize - 1) / this.windowSize)];
+        }
+    }
+
+
+    /* Function writes a chunk's data into the .tmp file at the chunk's offset and then records it in the metadata.
+     * Positional writes do not move the channel's position, so several threads may write their chunks at once.
+     * Input: The chunk to write.
+     * Throws a WriteFailedException when the .tmp file or the journal could not be written.
+     */
+    void write(Chunk chunk) throws WriteFailedException {
+        ByteBuffer data = chunk.getData();
+        DownloadEvents.ChunkWrite event = new DownloadEvents.ChunkWrite();
+        event.begin();
+        long writeStart = System.nanoTime();
+        try {
+            if (this.windows != null) {
+                ByteBuffer region = this.mapChunk(chunk.getId(), data.remaining());
+                region.put(data);
+                this.chunkWritten(event, chunk.getId(), region.position(), writeStart);
+                this.mappedChunkWritten(chunk.getId(), chunk.getChecksum(), region.flip());
+                return;
+            }
+            ByteBuffer written = data.duplicate();
+            long position = this.metadata.getChunkOffset(chunk.getId());
+            while (data.hasRemaining()) {
+                position += this.channel.write(data, position);
+            }
+            this.chunkWritten(event, chunk.getId(), written.remaining(), writeStart);
+            this.recordChunk(chunk.getId(), chunk.getChecksum(), written.remaining());
+            this.hashChunk(chunk.getId(), written);
+        } catch (IOException e) {
+            throw failure(e);
+        }
+    }
+
+
+    /* Function gets the region of the memory-mapped .tmp file a chunk is stored in, so a downloader can read the
+     * chunk's data straight into it. The window holding the chunk is mapped on first use.
+     * Input: An integer corresponding to the chunk's location in the array and the chunk's length in bytes.
+     * Output: A buffer over the chunk's region.
+     * Throws a WriteFailedException when the window could not be mapped.
+     */
+    ByteBuffer mapChunk(int chunkID, int byteLength) throws WriteFailedException {
+        long position = this.metadata.getChunkOffset(chunkID);
+        int windowIndex = (int) (position / this.windowSize);
+        MappedByteBuffer window;
+        synchronized (this.windows) {
+            window = this.windows[windowIndex];
+            if (window == null) {
+                long windowStart = windowIndex * this.windowSize;
+                try {
+                    long windowLength = Math.min(this.windowSize, this.channel.size() - windowStart);
+                    window = this.channel.map(FileChannel.MapMode.READ_WRITE, windowStart, windowLength);
+                } catch (IOException e) {
+                    throw failure(e);
+                }
+                this.windows[windowIndex] = window;
+            }
+        }
+        return window.slice((int) (position % this.windowSize), byteLength);
+    }
+
+
+    /* Function records a chunk whose data was put in its mapped region.
+     * Input: An integer corresponding to the chunk's location in the array, the CRC32C checksum of its data and its
+     *        region (positioned at the chunk's first byte).
+     * Throws a WriteFailedException when the journal could not be written.
+     */
+    void mappedChunkWritten(int chunkID, int checksum, ByteBuffer region) throws WriteFailedException {
+        try {
+            this.recordChunk(chunkID, checksum, region.remaining());
+            this.hashChunk(chunkID, region);
+        } catch (IOException e) {
+            throw failure(e);
+        }
+    }
+
+
+    /* Function records a written chunk and prints the download status if it changed. The chunk is recorded in the
+     * metadata right away and added to the batch waiting to be committed to the journal, which is committed by the
+     * recording thread once it is big or old enough (unless another thread is committing the previous batch).
+     * Input: An integer corresponding to the chunk's location in the array, the CRC32C checksum of its data and its
+     *        length in bytes.
+     */
+    private void recordChunk(int chunkID, int checksum, int byteLength) throws IOException {
+        boolean commit;
+        synchronized (this) {
+            long recordStart = System.nanoTime();
+            if (this.commitBytes == 0 && this.commitNanos == 0) {
+                this.journal.record(chunkID, checksum);
+            } else {
+                this.journal.downloaded(chunkID);
+                this.addToBatch(chunkID, checksum, byteLength, recordStart);
+            }
+            if (this.metrics != null) {
+                this.metrics.chunkRecorded(System.nanoTime() - recordStart);
+            }
+            if (this.downloadStatus != this.metadata.downloadStatus()) {
+                this.printStatus();
+            }
+            commit = (this.commitBytes > 0 && this.batchBytes >= this.commitBytes) || this.isBatchDue(recordStart);
+        }
+        if (commit) {
+            this.commitBatch();
+        }
+    }
+
+
+    /* Function commits the batch once it is old enough, when no chunk was recorded for a while (e.g. the connections
+     * stalled), so a batch is not left uncommitted past the commit interval. Called by the thread waiting for the
+     * download while nothing else wakes it.
+     * Throws a WriteFailedException when the batch could not be committed.
+     */
+    void commitIfDue() throws WriteFailedException {
+        boolean due;
+        synchronized (this) {
+            due = this.isBatchDue(System.nanoTime());
+        }
+        if (due) {
+            try {
+                this.commitBatch();
+            } catch (IOException e) {
+                throw failure(e);
+            }
+        }
+    }
+
+
+    // Returns the time in nanoseconds until the batch is old enough to be committed (Long.MAX_VALUE if batches are
+    // not committed by age, the commit interval if the batch is empty or another thread is committing).
+    synchronized long nanosUntilCommit() {
+        if (this.commitNanos == 0) {
+            return Long.MAX_VALUE;
+        }
+        if (this.batchSize == 0 || this.committing) {
+            return this.commitNanos;
+        }
+        return Math.max(0, this.batchStart + this.commitNanos - System.nanoTime());
+    }
+
+
+    // Returns true if the batch is old enough to be committed (called under the writer's lock).
+    private boolean isBatchDue(long now) {
+        return this.commitNanos > 0 && this.batchSize > 0 && now - this.batchStart >= this.commitNanos;
+    }
+
+
+    // Commits the batch waiting to be committed, unless it is empty or another thread is committing the previous one
+    // (the batch keeps growing meanwhile).
+    private void commitBatch() throws IOException {
+        int[] committedChunks;
+        int[] committedChecksums;
+        int committedSize;
+        long committedBytes;
+        synchronized (this) {
+            if (this.committing || this.batchSize == 0) {
+                return;
+            }
+            this.committing = true;
+            committedChunks = this.batchChunks;
+            committedChecksums = this.batchChecksums;
+            committedSize = this.batchSize;
+            committedBytes = this.batchBytes;
+            this.batchChunks = new int[committedChunks.length];
+            this.batchChecksums = new int[committedChunks.length];
+            this.batchSize = 0;
+            this.batchBytes = 0;
+        }
+        try {
+            this.commit(committedChunks, committedChecksums, committedSize, committedBytes);
+        } finally {
+            synchronized (this) {
+                this.committing = false;
+            }
+        }
+    }
+
+
+    // Adds a written chunk to the batch waiting to be committed (growing the batch's arrays when they are full).
+    private void addToBatch(int chunkID, int checksum, int byteLength, long now) {
+        if (this.batchSize == 0) {
+            this.batchStart = now;
+        }
+        if (this.batchSize == this.batchChunks.length) {
+            this.batchChunks = Arrays.copyOf(this.batchChunks, 2 * this.batchSize);
+            this.batchChecksums = Arrays.copyOf(this.batchChecksums, 2 * this.batchSize);
+        }
+        this.batchChunks[this.batchSize] = chunkID;
+        this.batchChecksums[this.batchSize] = checksum;
+        this.batchSize++;
+        this.batchBytes += byteLength;
+    }
+
+
+    /* Function commits a batch of written chunks: forces the .tmp file to the storage device, then records the
+     * chunks in the journal and forces the journal. If either force fails, the chunks of the batch are recorded as
+     * missing again (their data may not be durable), and the download cannot go on.
+     * Input: The chunks of the batch, their CRC32C checksums, their number and their length in bytes.
+     */
+    private void commit(int[] chunks, int[] checksums, int size, long bytes) throws IOException {
+        DownloadEvents.JournalForce event = new DownloadEvents.JournalForce();
+        event.begin();
+        long forceStart = System.nanoTime();
+        try {
+            this.forceData();
+            for (int i = 0; i < size; i++) {
+                this.journal.record(chunks[i], checksums[i]);
+            }
+            this.journal.force();
+        } catch (IOException | UncheckedIOException e) {
+            for (int i = 0; i < size; i++) {
+                this.journal.invalidate(chunks[i]);
+            }
+            throw (e instanceof UncheckedIOException) ? ((UncheckedIOException) e).getCause() : (IOException) e;
+        }
+        if (this.metrics == null) {
+            return;
+        }
+        this.metrics.forced(System.nanoTime() - forceStart);
+        if (event.shouldCommit()) {
+            event.file = this.metrics.getFileName();
+            event.chunks = size;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+
+    // Measures a chunk's write, emitting its JFR event if it took long enough to be recorded.
+    private void chunkWritten(DownloadEvents.ChunkWrite event, int chunkID, int byteLength, long writeStart) {
+        if (this.metrics == null) {
+            return;
+        }
+        this.metrics.chunkWritten(System.nanoTime() - writeStart);
+        if (event.shouldCommit()) {
+            event.file = this.metrics.getFileName();
+            event.chunk = chunkID;
+            event.bytes = byteLength;
+            event.commit();
+        }
+    }
+
+
+    // Advances the digest of the file over a written chunk (outside of the writer's lock).
+    private void hashChunk(int chunkID, ByteBuffer data) throws IOException {
+        if (this.hasher != null) {
+            this.hasher.chunkWritten(chunkID, data);
+        }
+    }
+
+
+    /* Function commits the chunks still waiting in the batch, at the end of the download (nothing is forced when
+     * chunks are not committed in batches, except for the mapped windows of the .tmp file).
+     */
+    void flush() throws IOException {
+        int[] committedChunks;
+        int[] committedChecksums;
+        int committedSize;
+        long committedBytes;
+        synchronized (this) {
+            committedChunks = this.batchChunks;
+            committedChecksums = this.batchChecksums;
+            committedSize = this.batchSize;
+            committedBytes = this.batchBytes;
+            this.batchSize = 0;
+            this.batchBytes = 0;
+        }
+        if (committedSize > 0) {
+            this.commit(committedChunks, committedChecksums, committedSize, committedBytes);
+        } else if (this.windows != null) {
+            this.forceData();
+        }
+    }
+
+
+    // Forces the written data of the .tmp file to the storage device (the mapped windows when it is mapped).
+    private void forceData() throws IOException {
+        if (this.windows == null) {
+            this.channel.force(false);
+            return;
+        }
+        MappedByteBuffer[] mappedWindows;
+        synchronized (this.windows) {
+            mappedWindows = this.windows.clone();
+        }
+        for (MappedByteBuffer window : mappedWindows) {
+            if (window != null) {
+                window.force();
+            }
+        }
+    }
+
+
+    // Returns the failure of a write to the .tmp file or the journal (wrapped once), told apart from network failures.
+    private static WriteFailedException failure(IOException e) {
+        return (e instanceof WriteFailedException) ? (WriteFailedException) e : new WriteFailedException(e);
+    }
+
+
+    // Returns true if the .tmp file is memory-mapped.
+    boolean isMapped() {
+        return this.windows != null;
+    }
+
+
+    // Reports the current download percentage.
+    synchronized void printStatus() {
+        this.downloadStatus = this.metadata.downloadStatus();
+        this.progress.accept(this.downloadStatus);
+    }
+
+
+    // A failure to write the .tmp file or the journal: a local failure the download cannot go on after (unlike the
+    // failures of the network, retrying the range does not help).
+    static class WriteFailedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        WriteFailedException(IOException cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package idc.dm;
+
+import java.util.HashMap;
+import java.util.Map;
+
+class ConnectionBudget {
+    private int availableConnections;               // Number of connections that may still be opened.
+    private int connectionsPerHost;                 // Maximal number of concurrent connections to a single host.
+    private Map<String, Integer> hostConnections;   // Number of open connections to each host.
+
+    ConnectionBudget(int maxConnections, int connectionsPerHost) {
+        this.availableConnections = maxConnections;
+        this.connectionsPerHost = connectionsPerHost;
+        this.hostConnections = new HashMap<>();
+    }
+
+
+    /* Function waits until a connection to the given host fits in both the global and the host's budget, and takes it.
+     * Input: The host's name.
+     */
+    synchronized void acquire(String host) throws InterruptedException {
+        while (this.availableConnections == 0 || this.hostConnections.getOrDefault(host, 0) >= this.connectionsPerHost) {
+            this.wait();
+        }
+        this.availableConnections--;
+        this.hostConnections.merge(host, 1, Integer::sum);
+    }
+
+
+    /* Function returns a connection to the given host to the budget.
+     * Input: The host's name.
+     */
+    synchronized void release(String host) {
+        this.availableConnections++;
+        if (this.hostConnections.merge(host, -1, Integer::sum) == 0) {
+            this.hostConnections.remove(host);
+        }
+        this.notifyAll();
+    }
+}
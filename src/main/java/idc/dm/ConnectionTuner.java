@@ -0,0 +1,105 @@
+package idc.dm;
+
+class ConnectionTuner {
+    private FileDownload download;
+    private boolean auto;                   // F: the number of connections is fixed to the maximum.
+    private int maxConnections;             // The configured maximum.
+    private int targetConnections;          // Number of downloaders currently allowed to read ranges.
+    private long intervalStart;             // Time (System.nanoTime) the current measuring interval started.
+    private long intervalBytes;             // Number of bytes read in the current measuring interval.
+    private double rateBeforeIncrease;      // Total bytes per second measured before the last connection was added.
+    private boolean increased;              // T: a connection was added at the end of the previous interval.
+    private int holdIntervals;              // Number of intervals to wait before probing with another connection.
+    final long INTERVAL_NANOS = 1_000_000_000L;     // Measuring the total throughput every second.
+    final double MIN_GAIN = 0.1;                    // A connection is kept only if it raised the throughput by 10%.
+    final int HOLD_INTERVALS = 5;                   // Probing again 5 intervals after a plateau or a failure.
+    final int INITIAL_CONNECTIONS = 2;
+
+    ConnectionTuner(FileDownload download, int maxConnections, boolean auto) {
+        this.download = download;
+        this.auto = auto;
+        this.maxConnections = maxConnections;
+        this.targetConnections = auto ? Math.min(INITIAL_CONNECTIONS, maxConnections) : maxConnections;
+        this.intervalStart = System.nanoTime();
+    }
+
+
+    /* Function waits until a downloader is allowed to read its next range, i.e. while its id is above the number of
+     * allowed connections. Downloaders the tuner parked stop waiting once no unclaimed work is left.
+     * Input: An integer corresponding to the id of the downloader and the scheduler of the download.
+     * Output: A boolean variable indicating if the downloader may go on (F: it should stop running).
+     */
+    synchronized boolean awaitTurn(int downloaderID, ChunkScheduler scheduler) throws InterruptedException {
+        while (downloaderID > this.targetConnections) {
+            if (scheduler.isDrained()) {
+                return false;
+            }
+            this.wait(INTERVAL_NANOS / 1_000_000);
+        }
+        return true;
+    }
+
+
+    /* Function records bytes read by any downloader. At the end of every interval the number of allowed connections is
+     * increased by one while the total throughput keeps rising, and decreased by one when the added connection did not
+     * help.
+     * Input: The number of bytes read.
+     */
+    synchronized void recordTransfer(long bytes) {
+        this.intervalBytes += bytes;
+        long now = System.nanoTime();
+        if (now - this.intervalStart < INTERVAL_NANOS) {
+            return;
+        }
+        double rate = this.intervalBytes * 1e9 / (now - this.intervalStart);
+        this.intervalStart = now;
+        this.intervalBytes = 0;
+        if (!this.auto) {
+            return;
+        }
+
+        if (this.increased && rate < this.rateBeforeIncrease * (1 + MIN_GAIN)) {
+            // The last connection added did not raise the throughput (plateau).
+            this.increased = false;
+            this.holdIntervals = HOLD_INTERVALS;
+            this.setTarget(this.targetConnections - 1);
+        } else if (this.holdIntervals > 0) {
+            this.increased = false;
+            this.holdIntervals--;
+        } else if (this.targetConnections < this.maxConnections) {
+            this.increased = true;
+            this.rateBeforeIncrease = rate;
+            this.setTarget(this.targetConnections + 1);
+        } else {
+            this.increased = false;
+        }
+    }
+
+
+    /* Function halves the number of allowed connections after a failed range (e.g. the server answered 429 or 503).
+     */
+    synchronized void failedRange() {
+        if (this.auto) {
+            this.increased = false;
+            this.holdIntervals = HOLD_INTERVALS;
+            this.setTarget(this.targetConnections / 2);
+        }
+    }
+
+
+    // Sets the number of allowed connections (at least 1, at most the maximum) and wakes up parked downloaders.
+    private void setTarget(int connections) {
+        connections = Math.max(1, Math.min(this.maxConnections, connections));
+        if (connections != this.targetConnections) {
+            this.targetConnections = connections;
+            this.download.printLine("Using " + connections + " connections");
+            this.notifyAll();
+        }
+    }
+
+
+    // Returns the number of downloaders currently allowed to read ranges.
+    synchronized int getTargetConnections() {
+        return this.targetConnections;
+    }
+}
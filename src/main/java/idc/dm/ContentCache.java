@@ -0,0 +1,290 @@
+package idc.dm;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/* A local cache of downloaded files, shared by all the runs. Every file is stored once, under the SHA-256 digest of
+ * its content (so files of different URLs with the same content share it), and an index maps the URL, the validator
+ * (strong ETag or Last-Modified date) and the size of the remote file it was downloaded from to that digest. The
+ * files used least recently are evicted to keep the cache within its quota.
+ * Index layout: a line per URL of tab separated fields: time of last use (milliseconds since the epoch), size,
+ * SHA-256 digest (hex), validator and URL, from the least recently used.
+ */
+class ContentCache {
+    private Path directory;
+    private long quota;                         // Maximal number of bytes of the cached files.
+    private LinkedHashMap<String, Entry> entries;   // Entries by URL, from the least recently used.
+    final String INDEX_FILE_NAME = "index";
+    final int READ_BUFFER_SIZE = 1 << 20;       // Reading files to digest in pieces of 1MB.
+
+    // A cached file: the remote file it was downloaded from and the digest it is stored under.
+    static class Entry {
+        private String url;
+        private String validator;
+        private long size;
+        private String digest;                  // SHA-256 digest of the content (hex).
+        private long lastUse;                   // Time the file was stored or copied (milliseconds since the epoch).
+
+        private Entry(String url, String validator, long size, String digest, long lastUse) {
+            this.url = url;
+            this.validator = validator;
+            this.size = size;
+            this.digest = digest;
+            this.lastUse = lastUse;
+        }
+
+        // Returns the validator of the remote file the cached file was downloaded from.
+        String getValidator() {
+            return this.validator;
+        }
+
+        // Returns the SHA-256 digest of the cached file (hex).
+        String getDigest() {
+            return this.digest;
+        }
+
+        // Returns true if the remote file has the validator and the size of the one the cached file was downloaded from.
+        boolean matches(RemoteFile remoteFile) {
+            return this.validator.equals(remoteFile.getValidator()) && this.size == remoteFile.getContentLength();
+        }
+    }
+
+    private ContentCache(Path directory, long quota) {
+        this.directory = directory;
+        this.quota = quota;
+        this.entries = new LinkedHashMap<>();
+    }
+
+
+    /* Function opens the cache in a directory (which is created if it does not exist) and reads its index.
+     * Input: The directory's path and the quota in bytes.
+     * Output: The cache or null if the directory or its index could not be read.
+     */
+    static ContentCache open(String directoryPath, long quota) {
+        ContentCache cache = new ContentCache(Paths.get(directoryPath), quota);
+        Path indexPath = cache.directory.resolve(cache.INDEX_FILE_NAME);
+        List<Entry> entries = new ArrayList<>();
+        try {
+            Files.createDirectories(cache.directory);
+            if (Files.exists(indexPath)) {
+                for (String line : Files.readAllLines(indexPath, StandardCharsets.UTF_8)) {
+                    String[] fields = line.split("\t", 5);
+                    if (fields.length != 5) {
+                        continue;
+                    }
+                    try {
+                        entries.add(new Entry(fields[4], fields[3], Long.parseLong(fields[1]), fields[2],
+                                Long.parseLong(fields[0])));
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        entries.sort(Comparator.comparingLong(entry -> entry.lastUse));
+        for (Entry entry : entries) {
+            cache.entries.put(entry.url, entry);
+        }
+        return cache;
+    }
+
+
+    /* Function looks up the cached file of a URL.
+     * Input: The URL.
+     * Output: The cached file's entry (if the URL has none, returns null).
+     */
+    synchronized Entry lookup(String url) {
+        return this.entries.get(url);
+    }
+
+
+    /* Function copies a cached file, verifying it against its digest on the way.
+     * Input: The cached file's entry and the path to copy it to.
+     * Output: A boolean variable indicating if the file was copied (F: it is missing or damaged, and was removed
+     *         from the cache along with every entry it is cached for).
+     */
+    boolean copyTo(Entry entry, String destinationPath) {
+        Path destination = Paths.get(destinationPath);
+        MessageDigest digest = newDigest();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(this.directory.resolve(entry.digest)), digest)) {
+            Files.copy(in, destination, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            digest = null;
+        }
+        if (digest == null || !HexFormat.of().formatHex(digest.digest()).equals(entry.digest)) {
+            try {
+                Files.deleteIfExists(destination);
+            } catch (IOException ignored) {
+            }
+            synchronized (this) {
+                for (Entry other : new ArrayList<>(this.entries.values())) {
+                    if (other.digest.equals(entry.digest)) {
+                        this.remove(other);
+                    }
+                }
+                this.saveIndex();
+            }
+            return false;
+        }
+        synchronized (this) {
+            if (this.entries.remove(entry.url) == entry) {
+                entry.lastUse = System.currentTimeMillis();
+                this.entries.put(entry.url, entry);
+                this.saveIndex();
+            }
+        }
+        return true;
+    }
+
+
+    /* Function stores a downloaded file in the cache (unless it is larger than the quota), replacing the file cached
+     * for its URL, and evicts the files used least recently until the cache is within its quota.
+     * Input: The file's URL, the validator of the remote file, the file's path and its SHA-256 digest (null if it
+     *        is not known, then the file is read to digest it).
+     * Output: A boolean variable indicating if the file was stored or skipped (F: an error occurred, or a replaced
+     *         or evicted file could not be deleted).
+     */
+    boolean store(String url, String validator, String filePath, byte[] sha256) {
+        Path file = Paths.get(filePath);
+        long size;
+        String digest;
+        try {
+            size = Files.size(file);
+            if (size > this.quota) {
+                return true;
+            }
+            digest = HexFormat.of().formatHex(sha256 != null ? sha256 : this.digestOf(file));
+        } catch (IOException e) {
+            return false;
+        }
+
+        synchronized (this) {
+            // The file is copied under a temporary name and renamed, so a cached file is always complete.
+            Path blob = this.directory.resolve(digest);
+            if (!Files.exists(blob)) {
+                Path copy = null;
+                try {
+                    copy = Files.createTempFile(this.directory, digest, ".tmp");
+                    Files.copy(file, copy, StandardCopyOption.REPLACE_EXISTING);
+                    Files.move(copy, blob, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    if (copy != null) {
+                        try {
+                            Files.deleteIfExists(copy);
+                        } catch (IOException ignored) {
+                        }
+                    }
+                    return false;
+                }
+            }
+            boolean removed = true;
+            Entry previous = this.entries.get(url);
+            if (previous != null) {
+                removed = this.remove(previous);
+            }
+            Entry entry = new Entry(url, validator, size, digest, System.currentTimeMillis());
+            this.entries.put(url, entry);
+            removed &= this.evict(entry);
+            return this.saveIndex() && removed;
+        }
+    }
+
+
+    // Evicts the files used least recently (except the given one) until the cache is within its quota. Returns false
+    // if the file of an evicted entry could not be deleted.
+    private boolean evict(Entry keptEntry) {
+        boolean removed = true;
+        Iterator<Entry> leastRecent = new ArrayList<>(this.entries.values()).iterator();
+        while (this.cachedBytes() > this.quota && leastRecent.hasNext()) {
+            Entry entry = leastRecent.next();
+            if (entry != keptEntry) {
+                removed &= this.remove(entry);
+            }
+        }
+        return removed;
+    }
+
+
+    // Removes an entry from the index, deleting its file unless another entry has the same content. Returns false if
+    // the file could not be deleted.
+    private boolean remove(Entry entry) {
+        if (this.entries.get(entry.url) != entry) {
+            return true;
+        }
+        this.entries.remove(entry.url);
+        for (Entry other : this.entries.values()) {
+            if (other.digest.equals(entry.digest)) {
+                return true;
+            }
+        }
+        try {
+            Files.deleteIfExists(this.directory.resolve(entry.digest));
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+
+    // Returns the number of bytes of the cached files (a file shared by several entries is counted once).
+    private long cachedBytes() {
+        Map<String, Long> files = new HashMap<>();
+        for (Entry entry : this.entries.values()) {
+            files.put(entry.digest, entry.size);
+        }
+        long bytes = 0;
+        for (long size : files.values()) {
+            bytes += size;
+        }
+        return bytes;
+    }
+
+
+    // Writes the index into a copy file and atomically renames it over the index. Returns false if an error occurred.
+    private boolean saveIndex() {
+        StringBuilder index = new StringBuilder();
+        for (Entry entry : this.entries.values()) {
+            index.append(entry.lastUse).append('\t').append(entry.size).append('\t').append(entry.digest)
+                    .append('\t').append(entry.validator).append('\t').append(entry.url).append('\n');
+        }
+        Path copy = this.directory.resolve(INDEX_FILE_NAME + ".tmp");
+        try {
+            Files.writeString(copy, index, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return false;
+        }
+        return MyTools.rename(copy.toString(), this.directory.resolve(INDEX_FILE_NAME).toString());
+    }
+
+
+    // Returns the SHA-256 digest of a file's content.
+    private byte[] digestOf(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) != -1) {
+                digest.update(buffer.flip());
+                buffer.clear();
+            }
+        }
+        return digest.digest();
+    }
+
+
+    // Returns a new SHA-256 digest (every Java runtime supports SHA-256).
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
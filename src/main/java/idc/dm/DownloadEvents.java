@@ -0,0 +1,105 @@
+package idc.dm;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/* The JFR events of the downloads. They cost nothing unless a flight recording is running, e.g.
+ * java -XX:StartFlightRecording=filename=idcdm.jfr IdcDm ...
+ */
+class DownloadEvents {
+
+    // Duration: from sending a range request until its answer's headers arrived (the time to first byte).
+    @Name("IdcDm.RangeRequest")
+    @Label("Range Request")
+    @Category({"IdcDm", "Network"})
+    @Description("Time to the first byte of a range request")
+    @StackTrace(false)
+    static class RangeRequest extends Event {
+        @Label("File")
+        String file;
+        @Label("Connection")
+        int connection;
+        @Label("Mirror")
+        String mirror;
+        @Label("Ranges")
+        String ranges;
+    }
+
+    @Name("IdcDm.RangeFailed")
+    @Label("Range Failed")
+    @Category({"IdcDm", "Network"})
+    @Description("A range that failed and will be retried")
+    @StackTrace(false)
+    static class RangeFailed extends Event {
+        @Label("File")
+        String file;
+        @Label("Connection")
+        int connection;
+        @Label("Mirror")
+        String mirror;
+        @Label("Chunk")
+        int chunk;
+        @Label("Reason")
+        String reason;
+    }
+
+    // Duration: writing a chunk into the .tmp file (recorded only when it took at least 1 ms by default).
+    @Name("IdcDm.ChunkWrite")
+    @Label("Chunk Write")
+    @Category({"IdcDm", "File"})
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static class ChunkWrite extends Event {
+        @Label("File")
+        String file;
+        @Label("Chunk")
+        int chunk;
+        @Label("Bytes")
+        @DataAmount
+        int bytes;
+    }
+
+    // Duration: committing a batch of chunks (forcing the .tmp file, then recording and forcing the journal).
+    @Name("IdcDm.JournalForce")
+    @Label("Journal Force")
+    @Category({"IdcDm", "File"})
+    @StackTrace(false)
+    static class JournalForce extends Event {
+        @Label("File")
+        String file;
+        @Label("Chunks")
+        int chunks;
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("IdcDm.Throughput")
+    @Label("Download Throughput")
+    @Category({"IdcDm"})
+    @Period("1 s")
+    @StackTrace(false)
+    static class Throughput extends Event {
+        @Label("File")
+        String file;
+        @Label("Bytes Per Second")
+        @DataAmount
+        long bytesPerSecond;
+        @Label("Connections")
+        int connections;
+        @Label("Queue Depth")
+        int queueDepth;
+        @Label("Queued Bytes")
+        @DataAmount
+        long queuedBytes;
+        @Label("Retries")
+        long retries;
+    }
+}
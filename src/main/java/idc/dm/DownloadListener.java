@@ -0,0 +1,19 @@
+package idc.dm;
+
+/* Receives the progress of the downloads of a DownloadManager. Its methods are called from the threads of the
+ * downloads (possibly from several of them at once), and do nothing unless overridden.
+ */
+public interface DownloadListener {
+
+    // Called when the percentage of the file's downloaded chunks grows (and once when the download starts).
+    default void progress(String fileName, int percent) {
+    }
+
+    // Called with a line describing the download (e.g. the ranges its connections request).
+    default void message(String fileName, String line) {
+    }
+
+    // Called with a line describing a problem of the download.
+    default void error(String fileName, String line) {
+    }
+}
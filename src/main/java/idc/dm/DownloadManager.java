@@ -0,0 +1,212 @@
+package idc.dm;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* Runs downloads in a long-lived process. The connection budget, the global rate limit, the HTTP client, the metrics,
+ * the cache of downloaded files, the threads and the chunk buffers are shared by all the downloads of a manager, so
+ * a download started in the same process pays no startup of its own. Every download returns a future of its result
+ * and reports its progress to a listener; cancelling the future stops the download (which resumes when run again).
+ * JVM-wide settings are left to the application: HttpURLConnection keeps only 5 idle connections per host alive
+ * unless the http.maxConnections system property is raised (the IdcDm command line raises it to the connections).
+ */
+public class DownloadManager implements AutoCloseable {
+    private DownloadOptions options;            // The options of the downloads started without options of their own.
+    private ConnectionBudget connectionBudget;  // The connections shared by all the downloads.
+    private HttpClient httpClient;              // The client shared by all the downloads (null for HttpURLConnection).
+    private RateLimiter globalRateLimiter;      // The limit shared by all the downloads.
+    private MetricsReporter metricsReporter;    // Publishes the metrics of all the downloads.
+    private ContentCache cache;                 // The cache of downloaded files (null: files are not cached).
+    private ExecutorService filePool;           // Runs the downloads (and the writer loop of each of them).
+    private ExecutorService downloaderPool;     // Runs the downloaders of all the downloads.
+    private Map<Integer, BufferPool> bufferPools;   // The pool of chunk buffers of every chunk size.
+    private Map<String, FileDownload> activeDownloads;  // The downloads started and not finished, by file name.
+    final int CONNECT_TIMEOUT_TIME = 20 * 1000;  // Setting connection timeout of java.net.http to 20 seconds.
+
+    private DownloadManager(DownloadOptions options, MetricsReporter metricsReporter, ContentCache cache) {
+        this.options = options;
+        this.metricsReporter = metricsReporter;
+        this.cache = cache;
+        this.connectionBudget = new ConnectionBudget(options.getMaxConnections(), options.getConnectionsPerHost());
+        this.globalRateLimiter = new RateLimiter(options.getGlobalRateLimit());
+        this.bufferPools = new HashMap<>();
+        this.activeDownloads = new ConcurrentHashMap<>();
+
+        // Up to MAX-CONCURRENT-CONNECTIONS files are downloaded concurrently, and their connections are taken from
+        // the budget, so a small file only holds a connection while it is downloaded.
+        this.filePool = Executors.newFixedThreadPool(options.getMaxConnections(), newThreadFactory("download-"));
+
+        // A single java.net.http client is shared by all the downloads when that engine is selected. It multiplexes
+        // the ranges of a host over a single HTTP/2 connection when the server supports it (HTTP/1.1 otherwise), and
+        // its downloaders run on virtual threads when they exist.
+        if (options.getEngine() == DownloadOptions.Engine.HTTPCLIENT) {
+            HttpClient.Builder builder = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_2)
+                    .connectTimeout(Duration.ofMillis(CONNECT_TIMEOUT_TIME))
+                    .followRedirects(HttpClient.Redirect.NORMAL);
+            ExecutorService virtualThreads = MyTools.newVirtualThreadExecutor();
+            if (virtualThreads != null) {
+                builder.executor(virtualThreads);
+            }
+            this.httpClient = builder.build();
+            this.downloaderPool = MyTools.newVirtualThreadExecutor();
+        }
+        if (this.downloaderPool == null) {
+            this.downloaderPool = Executors.newCachedThreadPool(newThreadFactory("downloader-"));
+        }
+    }
+
+
+    /* Function starts a manager, opening the resources shared by its downloads.
+     * Input: The options of the manager (and of the downloads started without options of their own).
+     * Output: The manager.
+     * Throws an IOException when the metrics file or the cache directory could not be opened.
+     */
+    public static DownloadManager create(DownloadOptions options) throws IOException {
+
+        // The metrics of the downloads are published through JMX and JFR (and optionally a JSON lines file).
+        MetricsReporter metricsReporter = MetricsReporter.create(options.getMetricsFile(), options.getMetricsInterval());
+        if (metricsReporter == null) {
+            throw new IOException("Metrics file could not be opened.");
+        }
+
+        // The cache of downloaded files is shared by all the downloads (and by the runs that use the same directory).
+        ContentCache cache = null;
+        if (options.getCacheDirectory() != null) {
+            cache = ContentCache.open(options.getCacheDirectory(), options.getCacheSize());
+            if (cache == null) {
+                metricsReporter.close();
+                throw new IOException("Cache directory could not be opened.");
+            }
+        }
+        return new DownloadManager(options, metricsReporter, cache);
+    }
+
+
+    /* Function starts downloading a file into the current directory with the options of the manager.
+     * Input: The mirrors of the file and the listener its progress is reported to.
+     * Output: The future of the download's result (T: the file was downloaded completely).
+     */
+    public CompletableFuture<Boolean> download(URL[] mirrors, DownloadListener listener) {
+        return this.download(mirrors, this.options, listener);
+    }
+
+
+    /* Function starts downloading a file into the current directory. The download waits for a thread of the manager
+     * and takes its connections from the manager's budget. Cancelling the returned future stops the download and
+     * keeps its .tmp and metadata files, so it resumes when started again.
+     * Input: The mirrors of the file, the options of the download (the connection budget, the global rate limit, the
+     *        engine, the metrics and the cache are the manager's) and the listener its progress is reported to.
+     * Output: The future of the download's result (T: the file was downloaded completely).
+     */
+    public CompletableFuture<Boolean> download(URL[] mirrors, DownloadOptions options, DownloadListener listener) {
+        FileDownload download = new FileDownload(mirrors, options, this, listener);
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        // Every download has its own .tmp and metadata files, so a file may only be downloaded once at a time.
+        if (this.activeDownloads.putIfAbsent(download.getFileName(), download) != null) {
+            download.printError("Is already being downloaded.");
+            result.complete(false);
+            return result;
+        }
+        result.whenComplete((downloaded, exception) -> {
+            if (result.isCancelled()) {
+                download.cancel();
+            }
+        });
+        try {
+            this.filePool.execute(() -> {
+                try {
+                    result.complete(download.download());
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                } finally {
+                    this.activeDownloads.remove(download.getFileName());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            this.activeDownloads.remove(download.getFileName());
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+
+    // Returns the name of the file a URL is downloaded to (in the current directory).
+    public static String getFileName(URL url) {
+        return MyTools.getFileNameFromURL(url);
+    }
+
+
+    /* Function closes the manager once its running downloads finished (no download may be started anymore). If the
+     * waiting thread is interrupted, the running downloads are cancelled.
+     */
+    public void close() {
+        this.filePool.shutdown();
+        try {
+            while (!this.filePool.awaitTermination(1, TimeUnit.SECONDS)) {
+                // Waiting for the running downloads.
+            }
+        } catch (InterruptedException e) {
+            for (FileDownload download : this.activeDownloads.values()) {
+                download.cancel();
+            }
+            Thread.currentThread().interrupt();
+        }
+        this.downloaderPool.shutdown();
+        this.metricsReporter.close();
+    }
+
+
+    /* Function gets the pool of chunk buffers of a chunk size, shared by the downloads whose chunks are queued to their
+     * writer thread. Each pool is bounded by the buffer memory budget, raised to a buffer per connection at least.
+     * Input: The chunk size in bytes.
+     * Output: The pool.
+     */
+    synchronized BufferPool getBufferPool(int chunkSize) {
+        return this.bufferPools.computeIfAbsent(chunkSize, size -> new BufferPool(size,
+                Math.max(this.options.getBufferMemory(), ((long) this.options.getMaxConnections()) * size)));
+    }
+
+
+    // Returns a factory of daemon threads named by the given prefix and a counter.
+    private static ThreadFactory newThreadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+
+    ConnectionBudget getConnectionBudget() {
+        return this.connectionBudget;
+    }
+
+    HttpClient getHttpClient() {
+        return this.httpClient;
+    }
+
+    RateLimiter getGlobalRateLimiter() {
+        return this.globalRateLimiter;
+    }
+
+    MetricsReporter getMetricsReporter() {
+        return this.metricsReporter;
+    }
+
+    ContentCache getCache() {
+        return this.cache;
+    }
+
+    ExecutorService getDownloaderPool() {
+        return this.downloaderPool;
+    }
+}
@@ -0,0 +1,249 @@
+package idc.dm;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/* The metrics of a single download. Counters are updated by the downloaders and the writer without locks, and the
+ * rates are measured every time the metrics are sampled (by the MetricsReporter, once per sampling interval).
+ */
+class DownloadMetrics implements DownloadMetricsMBean {
+    private FileDownload download;
+    private LongAdder[] connectionBytes;          // Number of bytes read by each connection (downloader 1 first).
+    private LongAdder queuedBytes;                // Number of bytes of the chunks waiting in the queue.
+    private LongAdder retries;                    // Number of ranges that failed and were retried.
+    private LatencyHistogram timeToFirstByte;     // From sending a range request until its answer's headers arrived.
+    private LatencyHistogram writeLatency;        // Writing a chunk into the .tmp file.
+    private LatencyHistogram journalLatency;      // Recording a chunk in the progress journal.
+    private LatencyHistogram forceLatency;        // Flushing the .tmp file and the journal to the storage device.
+    private long[] sampledConnectionBytes;        // Bytes of each connection at the last sample.
+    private long[] sampledMirrorBytes;            // Bytes of each mirror at the last sample.
+    private long sampleTime;                      // Time (System.nanoTime) of the last sample.
+    private volatile long[] connectionRates;      // Bytes per second of each connection over the last interval.
+    private volatile long[] mirrorRates;          // Bytes per second of each mirror over the last interval.
+
+    DownloadMetrics(FileDownload download, int numberOfConnections) {
+        this.download = download;
+        this.connectionBytes = new LongAdder[numberOfConnections];
+        for (int i = 0; i < numberOfConnections; i++) {
+            this.connectionBytes[i] = new LongAdder();
+        }
+        this.queuedBytes = new LongAdder();
+        this.retries = new LongAdder();
+        this.timeToFirstByte = new LatencyHistogram();
+        this.writeLatency = new LatencyHistogram();
+        this.journalLatency = new LatencyHistogram();
+        this.forceLatency = new LatencyHistogram();
+        this.sampledConnectionBytes = new long[numberOfConnections];
+        this.sampledMirrorBytes = new long[download.getMirrors().getNumberOfMirrors()];
+        this.connectionRates = new long[numberOfConnections];
+        this.mirrorRates = new long[this.sampledMirrorBytes.length];
+        this.sampleTime = System.nanoTime();
+    }
+
+
+    // Records a range request whose answer's headers arrived after the given number of nanoseconds.
+    void rangeOpened(long nanos) {
+        this.timeToFirstByte.record(nanos);
+    }
+
+    // Records the bytes of a chunk read by a connection.
+    void chunkRead(int downloaderID, long bytes) {
+        this.connectionBytes[downloaderID - 1].add(bytes);
+    }
+
+    // Records a chunk put in the queue (positive bytes) or taken from it by the writer (negative bytes).
+    void chunkQueued(long bytes) {
+        this.queuedBytes.add(bytes);
+    }
+
+    // Records a range that failed and will be retried.
+    void rangeFailed() {
+        this.retries.increment();
+    }
+
+    // Records the time in nanoseconds a chunk took to be written into the .tmp file.
+    void chunkWritten(long nanos) {
+        this.writeLatency.record(nanos);
+    }
+
+    // Records the time in nanoseconds a chunk took to be recorded in the progress journal.
+    void chunkRecorded(long nanos) {
+        this.journalLatency.record(nanos);
+    }
+
+    // Records the time in nanoseconds the .tmp file and the journal took to be flushed.
+    void forced(long nanos) {
+        this.forceLatency.record(nanos);
+    }
+
+
+    /* Function measures the rate of every connection and mirror since the previous sample.
+     */
+    synchronized void sample() {
+        long now = System.nanoTime();
+        double seconds = Math.max(1, now - this.sampleTime) / 1e9;
+        long[] newConnectionRates = new long[this.connectionBytes.length];
+        for (int i = 0; i < this.connectionBytes.length; i++) {
+            long bytes = this.connectionBytes[i].sum();
+            newConnectionRates[i] = (long) ((bytes - this.sampledConnectionBytes[i]) / seconds);
+            this.sampledConnectionBytes[i] = bytes;
+        }
+        long[] mirrorBytes = this.download.getMirrors().getBytes();
+        long[] newMirrorRates = new long[mirrorBytes.length];
+        for (int i = 0; i < mirrorBytes.length; i++) {
+            newMirrorRates[i] = (long) ((mirrorBytes[i] - this.sampledMirrorBytes[i]) / seconds);
+            this.sampledMirrorBytes[i] = mirrorBytes[i];
+        }
+        this.connectionRates = newConnectionRates;
+        this.mirrorRates = newMirrorRates;
+        this.sampleTime = now;
+    }
+
+
+    /* Function describes the metrics as a single line of JSON.
+     * Output: A JSON object.
+     */
+    String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"time\":").append(System.currentTimeMillis());
+        json.append(",\"file\":\"").append(jsonEscape(this.getFileName())).append('"');
+        json.append(",\"downloadedPercent\":").append(this.getDownloadedPercent());
+        json.append(",\"bytesPerSecond\":").append(this.getBytesPerSecond());
+        json.append(",\"connections\":").append(this.getTargetConnections());
+        json.append(",\"connectionBytesPerSecond\":[");
+        appendValues(json, this.getConnectionBytesPerSecond());
+        json.append("],\"mirrors\":[");
+        String[] mirrors = this.getMirrors();
+        long[] mirrorRates = this.getMirrorBytesPerSecond();
+        for (int i = 0; i < mirrors.length; i++) {
+            json.append(i > 0 ? "," : "").append("{\"url\":\"").append(jsonEscape(mirrors[i]));
+            json.append("\",\"bytesPerSecond\":").append(mirrorRates[i]).append('}');
+        }
+        json.append("],\"timeToFirstByteMillis\":");
+        appendHistogram(json, this.timeToFirstByte, 1e6);
+        json.append(",\"queueDepth\":").append(this.getQueueDepth());
+        json.append(",\"queuedBytes\":").append(this.getQueuedBytes());
+        json.append(",\"writeLatencyMicros\":");
+        appendHistogram(json, this.writeLatency, 1e3);
+        json.append(",\"journalLatencyMicros\":");
+        appendHistogram(json, this.journalLatency, 1e3);
+        json.append(",\"forceLatencyMillis\":");
+        appendHistogram(json, this.forceLatency, 1e6);
+        json.append(",\"retries\":").append(this.getRetries()).append('}');
+        return json.toString();
+    }
+
+
+    // Appends comma separated values to a JSON array.
+    private static void appendValues(StringBuilder json, long[] values) {
+        for (int i = 0; i < values.length; i++) {
+            json.append(i > 0 ? "," : "").append(values[i]);
+        }
+    }
+
+    // Appends the count and estimated percentiles of a histogram as a JSON object, in the given unit of nanoseconds.
+    private static void appendHistogram(StringBuilder json, LatencyHistogram histogram, double unitNanos) {
+        json.append("{\"count\":").append(histogram.getCount());
+        json.append(",\"p50\":").append(histogram.percentile(0.5) / unitNanos);
+        json.append(",\"p99\":").append(histogram.percentile(0.99) / unitNanos);
+        json.append(",\"max\":").append(histogram.getMaxNanos() / unitNanos).append('}');
+    }
+
+    // Escapes the quotes and backslashes of a JSON string.
+    private static String jsonEscape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+
+    public String getFileName() {
+        return this.download.getFileName();
+    }
+
+    public int getDownloadedPercent() {
+        return this.download.getMetadata().downloadStatus();
+    }
+
+    public long getBytesPerSecond() {
+        long total = 0;
+        for (long rate : this.connectionRates) {
+            total += rate;
+        }
+        return total;
+    }
+
+    public long[] getConnectionBytesPerSecond() {
+        return this.connectionRates.clone();
+    }
+
+    public long[] getMirrorBytesPerSecond() {
+        return this.mirrorRates.clone();
+    }
+
+    public String[] getMirrors() {
+        MirrorSelector mirrors = this.download.getMirrors();
+        String[] urls = new String[mirrors.getNumberOfMirrors()];
+        for (int i = 0; i < urls.length; i++) {
+            urls[i] = mirrors.getURL(i).toString();
+        }
+        return urls;
+    }
+
+    public int getTargetConnections() {
+        return this.download.getTuner().getTargetConnections();
+    }
+
+    public double getTimeToFirstByteMillisP50() {
+        return this.timeToFirstByte.percentile(0.5) / 1e6;
+    }
+
+    public double getTimeToFirstByteMillisP99() {
+        return this.timeToFirstByte.percentile(0.99) / 1e6;
+    }
+
+    public int getQueueDepth() {
+        return this.download.getQueue().size();
+    }
+
+    public long getQueuedBytes() {
+        return this.queuedBytes.sum();
+    }
+
+    public double getWriteLatencyMicrosP50() {
+        return this.writeLatency.percentile(0.5) / 1e3;
+    }
+
+    public double getWriteLatencyMicrosP99() {
+        return this.writeLatency.percentile(0.99) / 1e3;
+    }
+
+    public double getJournalLatencyMicrosP50() {
+        return this.journalLatency.percentile(0.5) / 1e3;
+    }
+
+    public double getJournalLatencyMicrosP99() {
+        return this.journalLatency.percentile(0.99) / 1e3;
+    }
+
+    public double getForceLatencyMillisP99() {
+        return this.forceLatency.percentile(0.99) / 1e6;
+    }
+
+    public long getRetries() {
+        return this.retries.sum();
+    }
+
+    public long getRateLimit() {
+        return this.download.getRateLimiter().getBytesPerSecond();
+    }
+
+    public void setRateLimit(long bytesPerSecond) {
+        this.download.getRateLimiter().setBytesPerSecond(bytesPerSecond);
+    }
+
+    public long getGlobalRateLimit() {
+        return this.download.getGlobalRateLimiter().getBytesPerSecond();
+    }
+
+    public void setGlobalRateLimit(long bytesPerSecond) {
+        this.download.getGlobalRateLimiter().setBytesPerSecond(bytesPerSecond);
+    }
+}
@@ -0,0 +1,54 @@
+package idc.dm;
+
+/* The JMX management interface of a download, registered as IdcDm:type=Download,name="FILE-NAME".
+ * Rates are measured over the last sampling interval and latencies are estimated by a histogram.
+ */
+public interface DownloadMetricsMBean {
+
+    String getFileName();
+
+    int getDownloadedPercent();
+
+    long getBytesPerSecond();
+
+    // Bytes per second read by each connection (downloader 1 first).
+    long[] getConnectionBytesPerSecond();
+
+    // Bytes per second read from each mirror (in the order of getMirrors).
+    long[] getMirrorBytesPerSecond();
+
+    String[] getMirrors();
+
+    int getTargetConnections();
+
+    double getTimeToFirstByteMillisP50();
+
+    double getTimeToFirstByteMillisP99();
+
+    // Number of chunks waiting in the queue for the writer thread (0 when the downloaders write by themselves).
+    int getQueueDepth();
+
+    long getQueuedBytes();
+
+    double getWriteLatencyMicrosP50();
+
+    double getWriteLatencyMicrosP99();
+
+    double getJournalLatencyMicrosP50();
+
+    double getJournalLatencyMicrosP99();
+
+    double getForceLatencyMillisP99();
+
+    long getRetries();
+
+    // The limit in bytes per second of this download (0: unlimited), which may be changed while downloading.
+    long getRateLimit();
+
+    void setRateLimit(long bytesPerSecond);
+
+    // The limit in bytes per second shared by all the downloads (0: unlimited).
+    long getGlobalRateLimit();
+
+    void setGlobalRateLimit(long bytesPerSecond);
+}
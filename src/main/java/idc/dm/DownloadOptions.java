@@ -0,0 +1,405 @@
+package idc.dm;
+
+import java.util.HexFormat;
+
+/* The options of the downloads of a DownloadManager, built from the command line (parse) or by an application that
+ * embeds the manager (of). The options are read-only once built.
+ */
+public class DownloadOptions {
+    private String source;              // A URL or the path of a URL-list file.
+    private int maxConnections;         // Maximal number of concurrent connections.
+    private WriteMode writeMode;        // How the downloaded chunks reach the .tmp file.
+    private long bufferMemory;          // Budget in bytes of the chunk buffers waiting to be written.
+    private boolean batch;              // T: every line of the URL-list file is a different file.
+    private int connectionsPerHost;     // Maximal number of concurrent connections to a single host.
+    private Engine engine;              // The HTTP client ranges are requested with.
+    private boolean autoConnections;    // T: the number of connections is tuned up to the maximum by throughput.
+    private boolean maxConnectionsGiven;    // T: MAX-CONCURRENT-CONNECTIONS was given.
+    private long rateLimit;             // Limit in bytes per second of every download (0: unlimited).
+    private long globalRateLimit;       // Limit in bytes per second of all the downloads together (0: unlimited).
+    private byte[] sha256;              // The expected SHA-256 digest of the downloaded file (null: not given).
+    private boolean resumeCheck;        // T: a resumed .tmp file is checked against the chunks' checksums.
+    private String metricsFile;         // Path of the JSON lines file the metrics are appended to (null: none).
+    private long metricsInterval;       // Interval in milliseconds the metrics are sampled and written at.
+    private boolean multiRange;         // T: the missing runs of a range are requested in a single request.
+    private int chunkSize;              // Size in bytes of the chunks of a new download (0: picked by the download).
+    private long commitBytes;           // Committing written chunks to the journal every this many bytes (0: never by size).
+    private long commitInterval;        // Committing written chunks to the journal every this many milliseconds (0: never by time).
+    private String cacheDirectory;      // Directory of the cache of downloaded files (null: files are not cached).
+    private long cacheSize;             // Quota in bytes of the cache of downloaded files.
+    private int timeout;                // Connection & read timeout in milliseconds of the range requests.
+    static final int DEFAULT_CONNECTIONS = 1;              // Setting default number of connections to 1.
+    static final WriteMode DEFAULT_WRITE_MODE = WriteMode.QUEUE;
+    static final int DEFAULT_AUTO_MAX_CONNECTIONS = 16;    // Setting default maximum of auto mode to 16.
+    static final long DEFAULT_BUFFER_MEMORY = 32L << 20;   // Setting default chunk buffers budget to 32MB.
+    static final long DEFAULT_METRICS_INTERVAL = 1000;     // Setting default metrics interval to 1 second.
+    static final long MAX_CHUNK_SIZE = 1L << 30;           // Setting maximal given chunk size to 1GB.
+    static final long PERIODIC_COMMIT_BYTES = 64L << 20;   // Setting periodic durability to commit every 64MB
+    static final long PERIODIC_COMMIT_INTERVAL = 1000;     // or every second, whichever comes first.
+    static final long DEFAULT_CACHE_SIZE = 4L << 30;       // Setting default cache quota to 4GB.
+    static final int DEFAULT_TIMEOUT = 20 * 1000;          // Setting default timeout to 20 seconds.
+
+    // QUEUE: a single writer thread writes the chunks the downloaders put in a queue.
+    // DIRECT: every downloader writes its chunks straight into the .tmp file at their offset.
+    // MMAP: every downloader reads its chunks straight into the memory-mapped .tmp file.
+    public enum WriteMode {QUEUE, DIRECT, MMAP}
+
+    // URLCONNECTION: a platform thread per connection, blocking on HttpURLConnection.
+    // HTTPCLIENT: java.net.http.HttpClient, with a virtual thread per connection when the runtime has them.
+    public enum Engine {URLCONNECTION, HTTPCLIENT}
+
+    private DownloadOptions() {
+        this.maxConnections = DEFAULT_CONNECTIONS;
+        this.writeMode = DEFAULT_WRITE_MODE;
+        this.bufferMemory = DEFAULT_BUFFER_MEMORY;
+        this.batch = false;
+        this.connectionsPerHost = Integer.MAX_VALUE;
+        this.engine = Engine.URLCONNECTION;
+        this.resumeCheck = true;
+        this.metricsInterval = DEFAULT_METRICS_INTERVAL;
+        this.commitBytes = PERIODIC_COMMIT_BYTES;
+        this.commitInterval = PERIODIC_COMMIT_INTERVAL;
+        this.cacheSize = DEFAULT_CACHE_SIZE;
+        this.timeout = DEFAULT_TIMEOUT;
+    }
+
+
+    /* Function parses the command line arguments: the positional URL|URL-LIST-FILE and MAX-CONCURRENT-CONNECTIONS,
+     * followed by any number of --name=value options.
+     * Input: The command line arguments.
+     * Output: The parsed options.
+     * Throws an IllegalArgumentException (whose message tells the invalid argument) when an argument is invalid.
+     */
+    public static DownloadOptions parse(String[] args) {
+        DownloadOptions options = new DownloadOptions();
+        int positional = 0;
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                options.setOption(arg);
+            } else if (positional == 0) {
+                options.source = arg;
+                positional++;
+            } else if (positional == 1) {
+                try {
+                    options.maxConnections = Integer.parseInt(arg);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Second argument is invalid.");
+                }
+                if (options.maxConnections < 1) {
+                    throw new IllegalArgumentException("Second argument is invalid.");
+                }
+                options.maxConnectionsGiven = true;
+                positional++;
+            } else {
+                throw new IllegalArgumentException("Unexpected argument " + arg + ".");
+            }
+        }
+        if (options.source == null) {
+            throw new IllegalArgumentException("No URL or URL-LIST-FILE was given.");
+        }
+        if (options.autoConnections && !options.maxConnectionsGiven) {
+            options.maxConnections = DEFAULT_AUTO_MAX_CONNECTIONS;
+        }
+        if (options.batch && options.sha256 != null) {
+            throw new IllegalArgumentException("A SHA-256 digest cannot be given for a batch of files.");
+        }
+        return options;
+    }
+
+
+    /* Function builds the options of an embedded DownloadManager, which has no URL|URL-LIST-FILE of its own (the
+     * files are given to it one by one).
+     * Input: The maximal number of concurrent connections and any number of --name=value options.
+     * Output: The options.
+     * Throws an IllegalArgumentException (whose message tells the invalid argument) when an argument is invalid.
+     */
+    public static DownloadOptions of(int maxConnections, String... args) {
+        DownloadOptions options = new DownloadOptions();
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("Maximal number of connections is invalid.");
+        }
+        options.maxConnections = maxConnections;
+        options.maxConnectionsGiven = true;
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument " + arg + ".");
+            }
+            options.setOption(arg);
+        }
+        return options;
+    }
+
+
+    // Sets a single --name=value option, throwing an IllegalArgumentException if it is invalid.
+    private void setOption(String arg) {
+        int separator = arg.indexOf('=');
+        String name = separator == -1 ? arg.substring(2) : arg.substring(2, separator);
+        String value = separator == -1 ? "" : arg.substring(separator + 1);
+        if (!this.setOption(name, value)) {
+            throw new IllegalArgumentException("Option " + arg + " is invalid.");
+        }
+    }
+
+
+    /* Function sets a single --name=value option.
+     * Input: The option's name and value.
+     * Output: A boolean variable indicating if the option is known and its value is valid.
+     */
+    private boolean setOption(String name, String value) {
+        switch (name) {
+            case "write-mode":
+                try {
+                    this.writeMode = WriteMode.valueOf(value.toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    return false;
+                }
+                return true;
+            case "buffer-memory":
+                this.bufferMemory = MyTools.parseSize(value);
+                return this.bufferMemory > 0;
+            case "batch":
+                this.batch = true;
+                return value.isEmpty();
+            case "connections-per-host":
+                try {
+                    this.connectionsPerHost = Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+                return this.connectionsPerHost > 0;
+            case "limit-rate":
+                this.rateLimit = MyTools.parseSize(value);
+                return this.rateLimit > 0;
+            case "global-limit-rate":
+                this.globalRateLimit = MyTools.parseSize(value);
+                return this.globalRateLimit > 0;
+            case "auto-connections":
+                this.autoConnections = true;
+                return value.isEmpty();
+            case "engine":
+                try {
+                    this.engine = Engine.valueOf(value.toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    return false;
+                }
+                return true;
+            case "metrics-file":
+                this.metricsFile = value;
+                return !value.isEmpty();
+            case "metrics-interval":
+                try {
+                    this.metricsInterval = Math.round(Double.parseDouble(value) * 1000);
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+                return this.metricsInterval > 0;
+            case "timeout":
+                try {
+                    long timeout = Math.round(Double.parseDouble(value) * 1000);
+                    this.timeout = (timeout > 0 && timeout <= Integer.MAX_VALUE) ? (int) timeout : 0;
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+                return this.timeout > 0;
+            case "durability":
+                return this.setDurability(value);
+            case "chunk-size":
+                long size = MyTools.parseSize(value);
+                this.chunkSize = (size > 0 && size <= MAX_CHUNK_SIZE) ? (int) size : 0;
+                return this.chunkSize > 0;
+            case "cache-dir":
+                this.cacheDirectory = value;
+                return !value.isEmpty();
+            case "cache-size":
+                this.cacheSize = MyTools.parseSize(value);
+                return this.cacheSize > 0;
+            case "multi-range":
+                this.multiRange = true;
+                return value.isEmpty();
+            case "no-resume-check":
+                this.resumeCheck = false;
+                return value.isEmpty();
+            case "sha256":
+                try {
+                    this.sha256 = HexFormat.of().parseHex(value);
+                } catch (IllegalArgumentException e) {
+                    return false;
+                }
+                return this.sha256.length == 32;
+            default:
+                return false;
+        }
+    }
+
+
+    /* Function sets the durability policy: "none" (written chunks are recorded right away and nothing is forced),
+     * "periodic" (committed every 64MB or every second), a size (e.g. 16M) or a number of milliseconds (e.g. 500ms).
+     * Input: The policy.
+     * Output: A boolean variable indicating if the policy is valid.
+     */
+    private boolean setDurability(String value) {
+        this.commitBytes = 0;
+        this.commitInterval = 0;
+        switch (value) {
+            case "none":
+                return true;
+            case "periodic":
+                this.commitBytes = PERIODIC_COMMIT_BYTES;
+                this.commitInterval = PERIODIC_COMMIT_INTERVAL;
+                return true;
+            default:
+                if (value.endsWith("ms")) {
+                    try {
+                        this.commitInterval = Long.parseLong(value.substring(0, value.length() - 2));
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                    return this.commitInterval > 0;
+                }
+                this.commitBytes = MyTools.parseSize(value);
+                return this.commitBytes > 0;
+        }
+    }
+
+
+    // Returns the usage of the command line.
+    public static String usage() {
+        return "usage:\n\tjava IdcDm URL|URL-LIST-FILE [MAX-CONCURRENT-CONNECTIONS] [OPTIONS]\n"
+                + "options:\n"
+                + "\t--write-mode=queue|direct|mmap\tWrite chunks from a single writer thread (default), from every connection,\n"
+                + "\t\t\t\t\tor from every connection into the memory-mapped .tmp file\n"
+                + "\t--buffer-memory=SIZE\t\tMemory for chunks waiting to be written, e.g. 64M (default 32M)\n"
+                + "\t--batch\t\t\t\tDownload every line of URL-LIST-FILE as a different file (mirrors separated\n"
+                + "\t\t\t\t\tby spaces), sharing MAX-CONCURRENT-CONNECTIONS between all of them\n"
+                + "\t--connections-per-host=N\tMaximal number of concurrent connections to a single host\n"
+                + "\t--engine=urlconnection|httpclient\tRequest ranges with HttpURLConnection (default) or java.net.http\n"
+                + "\t\t\t\t\t(on virtual threads when the Java runtime has them)\n"
+                + "\t--auto-connections\t\tStart with 2 connections and add more while the throughput rises, up to\n"
+                + "\t\t\t\t\tMAX-CONCURRENT-CONNECTIONS (default 16 in this mode)\n"
+                + "\t--limit-rate=SIZE\t\tLimit every download to SIZE bytes per second, e.g. 2M\n"
+                + "\t--global-limit-rate=SIZE\tLimit all the downloads of a batch together to SIZE bytes per second\n"
+                + "\t--sha256=HEX\t\t\tVerify the downloaded file against its SHA-256 digest (otherwise against the\n"
+                + "\t\t\t\t\tdigest the server gives in a Digest or Content-MD5 header, if any)\n"
+                + "\t--no-resume-check\t\tTrust a resumed .tmp file instead of checking its chunks against their checksums\n"
+                + "\t--timeout=SECONDS\t\tFail a range request after SECONDS without connecting or without a byte of\n"
+                + "\t\t\t\t\tits answer (default 20; time spent waiting for --limit-rate is not counted)\n"
+                + "\t--metrics-file=PATH\t\tAppend the metrics of every download to PATH as JSON lines (they are also\n"
+                + "\t\t\t\t\tregistered as JMX MBeans and emitted as JFR events)\n"
+                + "\t--metrics-interval=SECONDS\tInterval the metrics are sampled and written at (default 1)\n"
+                + "\t--multi-range\t\t\tRequest several missing runs in a single request (multipart/byteranges),\n"
+                + "\t\t\t\t\tfalling back to a request per run when the server refuses\n"
+                + "\t--chunk-size=SIZE\t\tSplit a new download to chunks of SIZE bytes, e.g. 1M (by default picked by\n"
+                + "\t\t\t\t\tthe file's size, with finer chunks at the file's end)\n"
+                + "\t--durability=POLICY\t\tForce written chunks to the disk before recording them as downloaded, in\n"
+                + "\t\t\t\t\tbatches: periodic (every 64M or 1 second, default), SIZE (e.g. 16M),\n"
+                + "\t\t\t\t\tMILLISECONDSms (e.g. 500ms) or none (record right away, never force)\n"
+                + "\t--cache-dir=DIR\t\t\tKeep downloaded files in a cache in DIR, and copy a file from it when the\n"
+                + "\t\t\t\t\tserver answers that the file did not change since (by its ETag or Last-Modified)\n"
+                + "\t--cache-size=SIZE\t\tEvict the files used least recently to keep the cache within SIZE (default 4G)";
+    }
+
+    // Returns the URL or the path of the URL-list file.
+    public String getSource() {
+        return this.source;
+    }
+
+    // Returns the maximal number of concurrent connections.
+    public int getMaxConnections() {
+        return this.maxConnections;
+    }
+
+    // Returns the way chunks are written to the .tmp file.
+    public WriteMode getWriteMode() {
+        return this.writeMode;
+    }
+
+    // Returns the budget in bytes of the chunk buffers waiting to be written.
+    public long getBufferMemory() {
+        return this.bufferMemory;
+    }
+
+    // Returns true if every line of the URL-list file is a different file.
+    public boolean isBatch() {
+        return this.batch;
+    }
+
+    // Returns the maximal number of concurrent connections to a single host.
+    public int getConnectionsPerHost() {
+        return this.connectionsPerHost;
+    }
+
+    // Returns true if the number of connections is tuned by throughput.
+    public boolean isAutoConnections() {
+        return this.autoConnections;
+    }
+
+    // Returns the limit in bytes per second of every download (0: unlimited).
+    public long getRateLimit() {
+        return this.rateLimit;
+    }
+
+    // Returns the limit in bytes per second of all the downloads together (0: unlimited).
+    public long getGlobalRateLimit() {
+        return this.globalRateLimit;
+    }
+
+    // Returns a copy of the expected SHA-256 digest of the downloaded file (null if it was not given).
+    public byte[] getSha256() {
+        return (this.sha256 == null) ? null : this.sha256.clone();
+    }
+
+    // Returns true if a resumed .tmp file is checked against the chunks' checksums.
+    public boolean isResumeCheck() {
+        return this.resumeCheck;
+    }
+
+    // Returns the path of the JSON lines file the metrics are appended to (null if none was given).
+    public String getMetricsFile() {
+        return this.metricsFile;
+    }
+
+    // Returns the interval in milliseconds the metrics are sampled and written at.
+    public long getMetricsInterval() {
+        return this.metricsInterval;
+    }
+
+    // Returns true if the missing runs of a range are requested in a single request.
+    public boolean isMultiRange() {
+        return this.multiRange;
+    }
+
+    // Returns the size in bytes of the chunks of a new download (0 if it is picked by the download).
+    public int getChunkSize() {
+        return this.chunkSize;
+    }
+
+    // Returns the number of bytes written chunks are committed to the journal at (0 if not by size).
+    public long getCommitBytes() {
+        return this.commitBytes;
+    }
+
+    // Returns the interval in milliseconds written chunks are committed to the journal at (0 if not by time).
+    public long getCommitInterval() {
+        return this.commitInterval;
+    }
+
+    // Returns the directory of the cache of downloaded files (null if files are not cached).
+    public String getCacheDirectory() {
+        return this.cacheDirectory;
+    }
+
+    // Returns the quota in bytes of the cache of downloaded files.
+    public long getCacheSize() {
+        return this.cacheSize;
+    }
+
+    // Returns the connection & read timeout in milliseconds of the range requests.
+    public int getTimeout() {
+        return this.timeout;
+    }
+
+    // Returns the HTTP client ranges are requested with.
+    public Engine getEngine() {
+        return this.engine;
+    }
+}
@@ -0,0 +1,671 @@
+package idc.dm;
+
+import java.io.*;
+import java.net.*;
+import java.net.http.HttpClient;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.concurrent.*;
+
+class FileDownload {
+    private URL[] urls;                         // Mirrors of the file.
+    private MirrorSelector mirrors;             // Measures the mirrors and picks the one each range is read from.
+    private DownloadOptions options;
+    private ConnectionBudget connectionBudget;  // The connections shared with the other downloads of a batch.
+    private HttpClient httpClient;              // The client shared by all the downloads (null for HttpURLConnection).
+    private RateLimiter globalRateLimiter;      // The limit shared by all the downloads.
+    private RateLimiter rateLimiter;            // The limit of this download alone.
+    private String fileName;                    // Name of the file the download produces.
+    private DownloadListener listener;          // The progress of the download is reported to it.
+    private Metadata metadata;
+    private ChunkScheduler scheduler;
+    private BlockingQueue<Chunk> queue;
+    private ChunkWriter writer;
+    private BufferPool bufferPool;
+    private boolean directWrites;               // T: the downloaders write their chunks by themselves.
+    private ConnectionTuner tuner;
+    private MetricsReporter metricsReporter;    // Publishes the metrics of all the downloads.
+    private DownloadManager manager;            // The manager the threads and the chunk buffers are shared by.
+    private ContentCache cache;                 // The cache of downloaded files shared by all the runs (null: none).
+    private DownloadMetrics metrics;
+    private volatile boolean multiRange;        // T: several missing runs are requested at once (until refused).
+    private String digestAlgorithm;             // Algorithm of the expected digest of the file (null: not verified).
+    private byte[] expectedDigest;              // The digest the file is verified against (given or by the server).
+    private volatile boolean remoteFileChanged; // T: the file changed on the server while it was downloaded.
+    private volatile boolean cancelled;         // T: the download was cancelled (it resumes when run again).
+    private volatile boolean writeFailed;       // T: writing the .tmp file or the journal failed, the download stopped.
+    final int MIN_CHUNK_SIZE = 65536;            // Setting minimal picked chunk size to 65536 bytes = 64KB.
+    final int MAX_CHUNK_SIZE = 8 << 20;          // Setting maximal picked chunk size to 8MB.
+    final int TARGET_CHUNKS = 4096;              // Picking the chunk size that splits a file to about 4096 chunks.
+    final int TAIL_FRACTION = 16;                // Splitting the last 1/16 of a file to finer chunks.
+    final long ASSUMED_BANDWIDTH = 12_500_000;   // Assuming 100Mbit/s per connection when no rate limit was given.
+
+    FileDownload(URL[] urls, DownloadOptions options, DownloadManager manager, DownloadListener listener) {
+        this.urls = urls;
+        this.mirrors = new MirrorSelector(urls);
+        this.options = options;
+        this.manager = manager;
+        this.connectionBudget = manager.getConnectionBudget();
+        this.httpClient = manager.getHttpClient();
+        this.globalRateLimiter = manager.getGlobalRateLimiter();
+        this.rateLimiter = new RateLimiter(options.getRateLimit());
+        this.metricsReporter = manager.getMetricsReporter();
+        this.cache = manager.getCache();
+        this.multiRange = options.isMultiRange();
+        this.fileName = MyTools.getFileNameFromURL(urls[0]);
+        this.listener = listener;
+    }
+
+
+    /* Function downloads the file into the current directory, resuming a broken download of it if there is one.
+     * Output: A boolean variable indicating if the file was downloaded completely.
+     */
+    boolean download() {
+
+        /*
+         * Preparing download accordingly to the following cases:
+         *  - File is downloaded from scratch.
+         *  - File was partially downloaded before (i.e. broken download).
+         */
+
+        // Paths of metadata and temporary downloaded file.
+        String filePath = this.fileName;
+        String tmpFilePath = filePath + ".tmp";
+        String metadataFilePath = filePath + ".metadata.tmp";
+        String metadata2FilePath = filePath + ".metadata_copy.tmp";
+        boolean success;
+
+        // A download cancelled before it started is not started at all.
+        if (cancelled) {
+            this.printError("Download was cancelled.");
+            return false;
+        }
+
+        // If file already exists (file with the same name) in current directory then abort.
+        File file = new File(filePath);
+        if (file.exists()) {
+            this.printError("File with the same name already exists in current directory.");
+            return false;
+        }
+
+        // Metadata files and temporary file.
+        File tmpFile = new File(tmpFilePath);
+        File metadataFile = new File(metadataFilePath);
+        ProgressJournal journal = null;
+
+        // A cached copy of the file (unless a broken download of it is resumed) makes the probe conditional.
+        ContentCache.Entry cached = (cache == null || metadataFile.exists()) ? null : cache.lookup(urls[0].toString());
+        if (cached != null && options.getSha256() != null
+                && !HexFormat.of().formatHex(options.getSha256()).equals(cached.getDigest())) {
+            cached = null;
+        }
+
+        // Creating initial connection obtaining file's content-length (from the first mirror that responds).
+        RemoteFile remoteFile = null;
+        int probedMirror = -1;                  // The mirror that answered the probe.
+        long probeNanos = 0;
+        while (remoteFile == null && ++probedMirror < urls.length) {
+            long probeStart = System.nanoTime();
+            remoteFile = MyTools.probeRemoteFile(urls[probedMirror], httpClient,
+                    (probedMirror == 0 && cached != null) ? cached.getValidator() : null);
+            probeNanos = System.nanoTime() - probeStart;
+        }
+        if (remoteFile == null) {
+            this.printError("No response from server (check server's URL or internet connection).");
+            return false;
+        }
+
+        // The cached copy is used when the server answered that the file did not change since (or with the same
+        // validator and size, when it ignores conditional requests).
+        if (cached != null && probedMirror == 0 && (remoteFile.isNotModified() || cached.matches(remoteFile))) {
+            if (cache.copyTo(cached, tmpFilePath) && MyTools.rename(tmpFilePath, filePath)) {
+                this.printLine("Copied from the local cache (the file did not change on the server).");
+                return true;
+            }
+            this.printError("Cached copy of the file is missing or damaged, downloading the file.");
+        }
+        if (remoteFile.isNotModified()) {
+            remoteFile = MyTools.probeRemoteFile(urls[0], httpClient, null);
+            if (remoteFile == null) {
+                this.printError("No response from server (check server's URL or internet connection).");
+                return false;
+            }
+        }
+        long fileSizeInBytes = remoteFile.getContentLength();
+
+        // The file is verified against the given digest, or else against the digest the server gave (if any).
+        if (options.getSha256() != null) {
+            digestAlgorithm = "SHA-256";
+            expectedDigest = options.getSha256();
+        } else if (remoteFile.getDigest() != null) {
+            digestAlgorithm = remoteFile.getDigestAlgorithm();
+            expectedDigest = remoteFile.getDigest();
+        }
+
+        // In case the metadata file exists.
+        if (metadataFile.exists()) {
+
+            // Extracting information from metadata file (metadata files of older versions are converted).
+            if ((journal = ProgressJournal.open(metadataFilePath, metadata2FilePath)) == null) {
+                this.printError("Metadata refuses to be de-serialized.");
+                return false;
+            }
+            metadata = journal.getMetadata();
+
+            // A broken download of a file that changed on the server since is started over. The journal holds the
+            // validator of the first mirror, which is only comparable with the first mirror's (every mirror has a
+            // validator of its own), otherwise a change is detected by the ranges requested from the first mirror.
+            if (probedMirror == 0 && journal.getValidator() != null && remoteFile.getValidator() != null
+                    && !journal.getValidator().equals(remoteFile.getValidator())) {
+                this.printLine("The file changed on the server since the download was broken, starting over.");
+                this.closeJournal(journal);
+                journal = null;
+                if (!metadataFile.delete()) {
+                    this.printError("Metadata file refuses to be deleted.");
+                    return false;
+                }
+            }
+        }
+
+        // Creating metadata file if it doesn't exist (and temporary file as well - is deleted and created again)
+        if (journal == null) {
+
+            // Deleting previous existing .tmp files of the same file for aesthetics.
+            if (tmpFile.exists()) {
+                if (!tmpFile.delete()) {
+                    this.printError("Previous .tmp file refuses to be deleted.");
+                }
+            }
+
+            // Creating metadata object(stores the status of every chunk in the file) and its progress journal.
+            // Offsets in the file are 64-bit, only chunk numbers are 32-bit (up to ProgressJournal.MAX_CHUNKS chunks).
+            metadata = this.layOutChunks(fileSizeInBytes, probeNanos / 2);
+            if (metadata == null) {
+                this.printError("File is too large (" + fileSizeInBytes + " bytes) to be split to "
+                        + ProgressJournal.MAX_CHUNKS + " chunks at most.");
+                return false;
+            }
+            if ((journal = ProgressJournal.create(metadata, (probedMirror == 0) ? remoteFile.getValidator() : null,
+                    metadataFilePath, metadata2FilePath)) == null) {
+                this.printError("Metadata file refuses to be created.");
+                return false;
+            }
+        }
+
+        // Every range is requested if the file still has the validator of the downloaded chunks on its mirror
+        // (If-Range), so a file that changes on the server is detected instead of mixing both versions in the .tmp
+        // file. The first mirror's validator is kept in the journal, the probed mirror's is the one it has now, and
+        // the other mirrors' are recorded from their first partial answer.
+        if (journal.getValidator() != null) {
+            mirrors.recordValidator(0, journal.getValidator());
+        }
+        mirrors.recordValidator(probedMirror, remoteFile.getValidator());
+
+        // Creating randomAccessFile as the .tmp file
+        RandomAccessFile randomAccessFile = MyTools.createRandomAccessFile(tmpFilePath, fileSizeInBytes);
+        if (randomAccessFile == null) {
+            this.printError("Could not create .tmp file (RandomAccessFile).");
+            this.closeJournal(journal);
+            return false;
+        }
+
+        // Checking the chunks recorded by a broken download against their checksums (a crash may leave torn writes).
+        if (metadata.getRemainingChunkNumber() < metadata.getLength() && options.isResumeCheck()) {
+            int invalidChunks = ResumeValidator.validate(randomAccessFile.getChannel(), journal);
+            if (invalidChunks > 0) {
+                this.printLine(invalidChunks + " chunks of the .tmp file do not match their checksums and will be downloaded again.");
+            } else if (invalidChunks < 0) {
+                this.printError("Could not read .tmp file to check it against the metadata.");
+            }
+        }
+
+        // Digests the file while it is written, when there is a digest to verify it against.
+        FileHasher hasher = (expectedDigest == null) ? null
+                : FileHasher.create(digestAlgorithm, randomAccessFile.getChannel(), metadata);
+
+        // A broken download whose chunks were all written is only verified and renamed.
+        if (metadata.isDownloadComplete()) {
+            this.closeJournal(journal);
+            if (!this.verifyDigest(hasher)) {
+                this.closeAndDelete(randomAccessFile, filePath, tmpFile, metadataFile, false);
+                this.deleteCorruptedDownload(tmpFile, metadataFile);
+                return false;
+            }
+            if (!this.closeAndDelete(randomAccessFile, filePath, tmpFile, metadataFile, true)) {
+                return false;
+            }
+            this.storeInCache(filePath);
+            return true;
+        }
+        int remainingChunks = metadata.getRemainingChunkNumber();
+        int numberOfConnections = Math.min(remainingChunks, options.getMaxConnections());
+
+        // Measuring the download's connections, queue and writes.
+        metrics = new DownloadMetrics(this, numberOfConnections);
+
+        // Writes chunks into the .tmp file at their offset (by the writer thread or by the downloaders themselves).
+        directWrites = options.getWriteMode() != DownloadOptions.WriteMode.QUEUE;
+        try {
+            writer = new ChunkWriter(randomAccessFile.getChannel(), journal, hasher, metrics,
+                    options.getWriteMode() == DownloadOptions.WriteMode.MMAP, options.getCommitBytes(),
+                    options.getCommitInterval(), this::printProgress);
+        } catch (IOException e) {
+            this.printError("Could not map .tmp file.");
+            this.closeJournal(journal);
+            this.closeAndDelete(randomAccessFile, filePath, tmpFile, metadataFile, false);
+            return false;
+        }
+
+        /*
+         *  Initializing threads to download the required file.
+         */
+
+        // The HTTPRangeDownloader threads are taken from the pool of the manager (of virtual threads when
+        // java.net.http is used and they exist).
+        ExecutorService downloaderPool = manager.getDownloaderPool();
+
+        // Initializing the chunk buffer pool and the blocking queue, both bounded by the buffer memory budget
+        // (which is raised to a buffer per connection at least). Every queued chunk holds a buffer, so the queue
+        // always has room for the end marker queued after the last chunk. Queued chunks borrow their buffers from
+        // the pool the manager shares between the downloads of the same chunk size (the writer threads always return
+        // them). In the direct modes every downloader holds a buffer of its own for as long as it runs, which could
+        // starve the connections of the other downloads, so the download has a pool of its own.
+        if (directWrites) {
+            long bufferMemory = Math.max(options.getBufferMemory(), ((long) numberOfConnections) * metadata.getChunkSize());
+            bufferPool = new BufferPool(metadata.getChunkSize(), bufferMemory);
+        } else {
+            bufferPool = manager.getBufferPool(metadata.getChunkSize());
+        }
+        queue = new LinkedBlockingQueue<>(bufferPool.getCapacity() + 1);
+
+        // Initializing the scheduler the threads claim ranges of missing chunks from (and take over each other's).
+        // A download cancelled meanwhile hands out no range at all.
+        synchronized (this) {
+            scheduler = new ChunkScheduler(metadata, numberOfConnections, multiRange, this);
+            if (cancelled) {
+                scheduler.stop();
+            }
+        }
+
+        // Initializing the tuner deciding how many of the threads read ranges (all of them unless in auto mode).
+        tuner = new ConnectionTuner(this, numberOfConnections, options.isAutoConnections());
+
+        if (options.isAutoConnections()) {
+            this.printLine("Downloading using " + tuner.getTargetConnections() + " connections (up to "
+                    + numberOfConnections + ")...");
+        } else if (numberOfConnections > 1) {
+            this.printLine("Downloading using " + numberOfConnections + " connections...");
+        } else {
+            this.printLine("Downloading...");
+        }
+
+        // Publishing the metrics while downloading.
+        metricsReporter.register(metrics);
+
+        // Initializing each HTTPRangeDownloader thread (the mirror is picked for every range by its throughput).
+        // Once all of them finished, the end marker is queued after their last chunk.
+        CompletableFuture<?>[] downloaders = new CompletableFuture<?>[numberOfConnections];
+        for (int i = 0; i < numberOfConnections; i++) {
+            downloaders[i] = CompletableFuture.runAsync(new HTTPRangeDownloader((i + 1), this), downloaderPool);
+        }
+        CompletableFuture<Void> downloadersFinished = CompletableFuture.allOf(downloaders);
+        if (!directWrites) {
+            downloadersFinished.whenComplete((result, exception) -> queue.offer(Chunk.END_OF_CHUNKS));
+        }
+
+        /* The fileWriter part:
+         * Taking the chunks from the BlockingQueue (blocking until one is queued, or until the written chunks waited
+         * long enough to be committed when no chunk arrives).
+         * Writing to the .tmp file.
+         * Updating the metadata.
+         * Once a write failed (or the thread was interrupted) the download is stopped, and the chunks queued until
+         * the end marker are dropped, returning their buffers to the pool the downloaders may be waiting on.
+         */
+        writer.printStatus();
+        while (!directWrites) {
+            Chunk currentChunk;
+            try {
+                currentChunk = queue.poll(writer.nanosUntilCommit(), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                this.cancel();
+                continue;
+            }
+            if (currentChunk == null) {
+                this.commitIfDue();
+                continue;
+            }
+            if (currentChunk == Chunk.END_OF_CHUNKS) {
+                break;
+            }
+
+            // Writing to the .tmp file and updating the metadata, then returning the chunk's buffer to the pool.
+            metrics.chunkQueued(-currentChunk.getData().remaining());
+            try {
+                if (!writeFailed) {
+                    writer.write(currentChunk);
+                }
+            } catch (IOException e) {
+                this.writeFailed(e);
+            } finally {
+                bufferPool.release(currentChunk.getData());
+            }
+        }
+
+        // In the direct modes the downloaders write their chunks by themselves, and this thread commits their batch
+        // once it is old enough while waiting for them.
+        while (directWrites && !downloadersFinished.isDone()) {
+            try {
+                downloadersFinished.get(writer.nanosUntilCommit(), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                this.commitIfDue();
+            } catch (InterruptedException e) {
+                this.cancel();
+            } catch (ExecutionException e) {
+                break;
+            }
+        }
+
+        // Waiting for the downloaders to download the file (they write their chunks by themselves in direct modes).
+        downloadersFinished.exceptionally(exception -> {
+            this.printError("A connection stopped running (" + exception.getCause() + ").");
+            return null;
+        }).join();
+
+        if (mirrors.getNumberOfMirrors() > 1) {
+            this.printLine(mirrors.getReport());
+        }
+        metricsReporter.unregister(metrics);
+
+        // Closing allocated resources and deleting unnecessary .tmp files.
+        success = !writeFailed && metadata.isDownloadComplete();
+        if (cancelled && !success) {
+            this.printError("Download was cancelled, it resumes when run again.");
+        }
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            // The chunks of the last batch were not recorded in the journal, a resumed download gets them again.
+            this.printError("Could not flush .tmp file to the storage device.");
+            success = false;
+        }
+        this.closeJournal(journal);
+        if (remoteFileChanged) {
+            this.printError("The file changed on the server while it was downloaded.");
+            this.closeAndDelete(randomAccessFile, filePath, tmpFile, metadataFile, false);
+            this.deleteCorruptedDownload(tmpFile, metadataFile);
+            return false;
+        }
+        if (success && !this.verifyDigest(hasher)) {
+            this.closeAndDelete(randomAccessFile, filePath, tmpFile, metadataFile, false);
+            this.deleteCorruptedDownload(tmpFile, metadataFile);
+            return false;
+        }
+        if (!this.closeAndDelete(randomAccessFile, filePath, tmpFile, metadataFile, success)) {
+            success = false;
+        }
+        if (success) {
+            this.storeInCache(filePath);
+        }
+        return success;
+    }
+
+
+    /* Function stores the downloaded file in the cache under the first mirror's URL, when there is one and the file
+     * has a validator on that mirror (a cached copy of a file without one could never be told to be up to date).
+     * Input: The path of the downloaded file.
+     */
+    private void storeInCache(String filePath) {
+        String validator = mirrors.getValidator(0);
+        if (cache == null || validator == null) {
+            return;
+        }
+        byte[] sha256 = "SHA-256".equals(digestAlgorithm) ? expectedDigest : null;
+        if (!cache.store(urls[0].toString(), validator, filePath, sha256)) {
+            this.printError("Could not store the file in the local cache (or delete the cached files it replaced).");
+        }
+    }
+
+
+    /* Function lays out the chunks of a new download. Unless a chunk size was given, the chunk size grows with the
+     * file's size (about TARGET-CHUNKS chunks a file), and the end of the file is split to chunks of about the
+     * bandwidth-delay product of a connection: the last ranges handed out are split between the downloaders in those
+     * finer chunks, and a piece of a bandwidth-delay product is the smallest one worth a request of its own.
+     * Input: The file's size in bytes and the round-trip time to the server in nanoseconds.
+     * Output: The metadata of the download (if the file has too many chunks, returns null).
+     */
+    private Metadata layOutChunks(long fileSizeInBytes, long roundTripNanos) {
+        if (options.getChunkSize() > 0) {
+            return Metadata.forFile(fileSizeInBytes, options.getChunkSize(), options.getChunkSize(), 0,
+                    ProgressJournal.MAX_CHUNKS);
+        }
+        long bandwidth = (options.getRateLimit() > 0) ? options.getRateLimit()
+                : (options.getGlobalRateLimit() > 0) ? options.getGlobalRateLimit() : ASSUMED_BANDWIDTH;
+        double bandwidthDelayProduct = (double) bandwidth * roundTripNanos / 1_000_000_000L;
+        int tailChunkSize = this.chunkSizeOf(bandwidthDelayProduct);
+        int chunkSize = Math.max(tailChunkSize, this.chunkSizeOf((double) fileSizeInBytes / TARGET_CHUNKS));
+        return Metadata.forFile(fileSizeInBytes, chunkSize, tailChunkSize, fileSizeInBytes / TAIL_FRACTION,
+                ProgressJournal.MAX_CHUNKS);
+    }
+
+    // Returns the power of two nearest below the given number of bytes, between MIN-CHUNK-SIZE and MAX-CHUNK-SIZE.
+    private int chunkSizeOf(double bytes) {
+        return Integer.highestOneBit((int) Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, bytes)));
+    }
+
+
+    /* Function verifies the downloaded file against its expected digest.
+     * Input: The hasher of the .tmp file (null if there is no expected digest or its algorithm is not supported).
+     * Output: A boolean variable indicating if the file matches its digest (true when there is none to verify).
+     */
+    private boolean verifyDigest(FileHasher hasher) {
+        if (expectedDigest == null) {
+            return true;
+        }
+        if (hasher == null) {
+            this.printLine("Digest algorithm " + digestAlgorithm + " is not supported, the file is not verified.");
+            return true;
+        }
+        byte[] actualDigest;
+        try {
+            actualDigest = hasher.finish();
+        } catch (IOException e) {
+            this.printError("Could not read .tmp file to verify its " + digestAlgorithm + " digest.");
+            return false;
+        }
+        if (actualDigest == null || !MessageDigest.isEqual(actualDigest, expectedDigest)) {
+            this.printError(digestAlgorithm + " digest mismatch: expected " + HexFormat.of().formatHex(expectedDigest)
+                    + " but the downloaded file has " + (actualDigest == null ? "missing chunks"
+                    : HexFormat.of().formatHex(actualDigest)) + ".");
+            return false;
+        }
+        this.printLine("Verified " + digestAlgorithm + " digest.");
+        return true;
+    }
+
+
+    /* Function closes the .tmp file and, when the download completed, renames it to the file's name and deletes the
+     * metadata file.
+     * Input: The .tmp file's RandomAccessFile, the file's path, the .tmp and metadata files and whether the download
+     *        completed.
+     * Output: A boolean variable indicating if the .tmp file was closed (and renamed, when the download completed).
+     */
+    private boolean closeAndDelete(RandomAccessFile randomAccessFile, String filePath, File tmpFile, File metadataFile,
+                                   boolean downloadCompleted) {
+        try {
+            randomAccessFile.close();
+        } catch (IOException e) {
+            this.printError(".tmp file refuses to close.");
+            return false;
+        }
+        if (downloadCompleted) {
+            if (!tmpFile.renameTo(new File(filePath))) {
+                this.printError(".tmp file refuses to be renamed.");
+                return false;
+            }
+            if (!metadataFile.delete()) {
+                this.printError("Metadata file refuses to be deleted.");
+            }
+        }
+        return true;
+    }
+
+    // Closes the journal's file (its recorded chunks were already forced or are recorded again by the next run).
+    private void closeJournal(ProgressJournal journal) {
+        try {
+            journal.close();
+        } catch (IOException e) {
+            this.printError("Metadata file refuses to close.");
+        }
+    }
+
+    // Deletes the .tmp and metadata files of a download that failed verification, so it starts over next time.
+    private void deleteCorruptedDownload(File tmpFile, File metadataFile) {
+        if (!tmpFile.delete() || !metadataFile.delete()) {
+            this.printError("Corrupted .tmp or metadata file refuses to be deleted.");
+        } else {
+            this.printError("Deleted the corrupted .tmp file, the download will start over when run again.");
+        }
+    }
+
+
+    /* Function waits until bytes about to be read fit in both the global and the download's rate limits.
+     * Input: The number of bytes.
+     */
+    void throttle(long bytes) throws InterruptedException {
+        this.globalRateLimiter.acquire(bytes);
+        this.rateLimiter.acquire(bytes);
+    }
+
+
+    // Stops the download after every mirror answered a range request with the whole file, as it changed since its
+    // first chunks were downloaded.
+    synchronized void remoteFileChanged() {
+        if (!this.remoteFileChanged) {
+            this.remoteFileChanged = true;
+            this.scheduler.stop();
+        }
+    }
+
+    // Commits the written chunks once they waited long enough, stopping the download if that failed.
+    private void commitIfDue() {
+        try {
+            writer.commitIfDue();
+        } catch (IOException e) {
+            this.writeFailed(e);
+        }
+    }
+
+
+    // Stops the download after writing the .tmp file or the journal failed. A local failure is not retried (nor is
+    // it blamed on the mirrors), the chunks recorded so far are kept for the next run.
+    synchronized void writeFailed(IOException exception) {
+        if (!this.writeFailed) {
+            this.writeFailed = true;
+            this.printError("Error occurred when writing to .tmp File (" + exception.getMessage() + ").");
+            this.scheduler.stop();
+        }
+    }
+
+
+    // Cancels the download: no range is handed out anymore and the active ones are aborted. The .tmp and metadata
+    // files are kept, so the download resumes when run again.
+    synchronized void cancel() {
+        if (!this.cancelled) {
+            this.cancelled = true;
+            if (this.scheduler != null) {
+                this.scheduler.stop();
+            }
+        }
+    }
+
+
+    // Returns true if several missing runs are requested in a single request.
+    boolean isMultiRange() {
+        return this.multiRange;
+    }
+
+    // Falls back to a request per missing run, after the server refused a request of several runs.
+    synchronized void disableMultiRange(int statusCode) {
+        if (this.multiRange) {
+            this.multiRange = false;
+            this.printLine("Server answered " + statusCode + " to a request of several ranges, requesting them one by one.");
+        }
+    }
+
+
+    // Reports a line describing the download to its listener.
+    void printLine(String line) {
+        this.listener.message(this.fileName, line);
+    }
+
+    // Reports a line describing a problem of the download to its listener.
+    void printError(String line) {
+        this.listener.error(this.fileName, line);
+    }
+
+    // Reports the download percentage to the listener of the download.
+    void printProgress(int percent) {
+        this.listener.progress(this.fileName, percent);
+    }
+
+    // Returns the name of the file the download produces.
+    String getFileName() {
+        return this.fileName;
+    }
+
+    MirrorSelector getMirrors() {
+        return this.mirrors;
+    }
+
+    Metadata getMetadata() {
+        return this.metadata;
+    }
+
+    ChunkScheduler getScheduler() {
+        return this.scheduler;
+    }
+
+    BlockingQueue<Chunk> getQueue() {
+        return this.queue;
+    }
+
+    // Returns the writer when the downloaders write their chunks by themselves (otherwise returns null).
+    ChunkWriter getDirectWriter() {
+        return this.directWrites ? this.writer : null;
+    }
+
+    ConnectionTuner getTuner() {
+        return this.tuner;
+    }
+
+    BufferPool getBufferPool() {
+        return this.bufferPool;
+    }
+
+    ConnectionBudget getConnectionBudget() {
+        return this.connectionBudget;
+    }
+
+    // Returns the limit of this download alone, which may be changed while downloading.
+    RateLimiter getRateLimiter() {
+        return this.rateLimiter;
+    }
+
+    // Returns the limit shared by all the downloads, which may be changed while downloading.
+    RateLimiter getGlobalRateLimiter() {
+        return this.globalRateLimiter;
+    }
+
+    DownloadMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    // Returns the connection & read timeout in milliseconds of the range requests.
+    int getTimeout() {
+        return this.options.getTimeout();
+    }
+
+    HttpClient getHttpClient() {
+        return this.httpClient;
+    }
+}
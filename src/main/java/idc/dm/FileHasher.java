@@ -0,0 +1,102 @@
+package idc.dm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/* Computes the digest of the whole file while it is downloaded. The digest advances over the written prefix of the
+ * file: a chunk that arrives right at its end is hashed from memory, and chunks that arrived earlier (out of order)
+ * are read back from the .tmp file once the prefix reaches them, so only the out of order chunks are read twice.
+ */
+class FileHasher {
+    private MessageDigest digest;
+    private FileChannel channel;            // The channel of the .tmp file.
+    private Metadata metadata;
+    private int nextChunk;                  // The first chunk that was not hashed yet.
+    private ByteBuffer readBuffer;          // Buffer chunks are read back into (allocated on first use).
+    private ReentrantLock lock;
+
+    private FileHasher(MessageDigest digest, FileChannel channel, Metadata metadata) {
+        this.digest = digest;
+        this.channel = channel;
+        this.metadata = metadata;
+        this.lock = new ReentrantLock();
+    }
+
+
+    /* Function creates a hasher of a .tmp file.
+     * Input: The digest's algorithm (e.g. "SHA-256"), the channel of the .tmp file and the metadata of the download.
+     * Output: The hasher or null if the algorithm is not supported.
+     */
+    static FileHasher create(String algorithm, FileChannel channel, Metadata metadata) {
+        try {
+            return new FileHasher(MessageDigest.getInstance(algorithm), channel, metadata);
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+
+    /* Function advances the digest after a chunk was written to the .tmp file (and recorded in the metadata).
+     * A thread never waits for another thread that advances the digest: the chunk is left to be read back instead.
+     * Input: An integer corresponding to the chunk's location in the array and a buffer of its data.
+     */
+    void chunkWritten(int chunkID, ByteBuffer data) throws IOException {
+        if (chunkID != this.nextChunk || !this.lock.tryLock()) {
+            return;
+        }
+        try {
+            if (chunkID == this.nextChunk) {
+                this.digest.update(data);
+                this.nextChunk++;
+            }
+            this.catchUp();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+
+    /* Function completes the digest once the whole file was written, reading back the chunks not hashed yet.
+     * Output: The digest of the file (null if a chunk of the file is still missing).
+     */
+    byte[] finish() throws IOException {
+        this.lock.lock();
+        try {
+            this.catchUp();
+            return this.nextChunk == this.metadata.getLength() ? this.digest.digest() : null;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+
+    // Reads back and hashes the downloaded chunks at the end of the hashed prefix.
+    private void catchUp() throws IOException {
+        while (this.nextChunk < this.metadata.getLength() && this.metadata.isChunkDownloaded(this.nextChunk)) {
+            if (this.readBuffer == null) {
+                this.readBuffer = ByteBuffer.allocateDirect(this.metadata.getChunkSize());
+            }
+            int byteLength = this.metadata.getChunkBytes(this.nextChunk);
+            long position = this.metadata.getChunkOffset(this.nextChunk);
+            this.readBuffer.clear().limit(byteLength);
+            while (this.readBuffer.hasRemaining()) {
+                if (this.channel.read(this.readBuffer, position + this.readBuffer.position()) < 0) {
+                    throw new IOException(".tmp file is shorter than the downloaded file.");
+                }
+            }
+            this.readBuffer.flip();
+            this.digest.update(this.readBuffer);
+            this.nextChunk++;
+        }
+    }
+
+
+    // Returns the algorithm of the digest.
+    String getAlgorithm() {
+        return this.digest.getAlgorithm();
+    }
+}
@@ -0,0 +1,443 @@
+package idc.dm;
+
+import java.net.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+
+class HTTPRangeDownloader extends Thread {
+    private int id;
+    private MirrorSelector mirrors;               // Picks the mirror each range is read from.
+    private FileDownload download;                // The download of the file the thread belongs to.
+    private BlockingQueue<Chunk> queue;
+    private Metadata metadata;
+    private ChunkScheduler scheduler;
+    private ChunkWriter writer;                   // Given only when the thread writes its chunks by itself.
+    private BufferPool bufferPool;                // The pool chunk buffers are borrowed from.
+    private ConnectionBudget connectionBudget;    // A connection is taken from the budget for every range.
+    private HttpClient httpClient;                // Given only when ranges are requested through java.net.http.
+    private ConnectionTuner tuner;                // Decides how many of the download's threads read ranges.
+    private ByteBuffer directBuffer;              // Borrowed once and reused when the thread writes by itself.
+    private DownloadMetrics metrics;
+    private int timeout;                          // Connection & read timeout in milliseconds of the range requests.
+    final int MAX_RUNS_PER_REQUEST = 64;          // Requesting up to 64 missing runs in a single request.
+
+    HTTPRangeDownloader(int id, FileDownload download) {
+        this.id = id;
+        this.mirrors = download.getMirrors();
+        this.download = download;
+        this.scheduler = download.getScheduler();
+        this.queue = download.getQueue();
+        this.writer = download.getDirectWriter();
+        this.bufferPool = download.getBufferPool();
+        this.connectionBudget = download.getConnectionBudget();
+        this.httpClient = download.getHttpClient();
+        this.tuner = download.getTuner();
+        this.metadata = download.getMetadata();
+        this.metrics = download.getMetrics();
+        this.timeout = download.getTimeout();
+    }
+
+    public void run() {
+        RangeResponse response = null;
+        ChunkRange range;
+        boolean interrupted = false;
+
+        // Making a connection to server for each range the scheduler allocates for the thread, until none is left.
+        // A failed range goes back to the scheduler to be retried (possibly from another mirror) after a backoff.
+        while (!interrupted) {
+            try {
+                if (!this.tuner.awaitTurn(this.id, this.scheduler)) {
+                    break;
+                }
+                range = this.scheduler.nextRange(this.id);
+            } catch (InterruptedException e) {
+                interrupted = true;
+                break;
+            }
+            if (range == null) {
+                break;
+            }
+            int mirror = this.mirrors.acquire();
+            URL url = this.mirrors.getURL(mirror);
+            boolean connectionAcquired = false;
+            boolean rangeFailed = false;
+            int chunkID = this.nextMissingChunk(range.getFirstChunk());   // The first chunk of the next request.
+
+            try {
+                // Waits for a connection to fit in the budget shared by all the downloads.
+                this.connectionBudget.acquire(url.getHost());
+                connectionAcquired = true;
+
+                // Requests the missing runs of the range (all of them at once, up to MAX_RUNS_PER_REQUEST, when
+                // several runs may be requested in a single request), until every chunk was read or taken over.
+                while (chunkID != -1 && chunkID <= range.getLastChunk()) {
+                    boolean multiRange = this.download.isMultiRange();
+                    int lastChunk = this.metadata.getLastChunkOfRuns(chunkID, range.getLastChunk(),
+                            multiRange ? MAX_RUNS_PER_REQUEST : 1);
+                    String displayRanges = this.metadata.getRanges(chunkID, lastChunk);
+                    String requestRanges = MyTools.convertRangesDisplayToRequest(displayRanges);
+                    this.download.printLine(this.getDetails(displayRanges, url));
+
+                    // Reads metadata chunks that haven't been downloaded yet.
+                    DownloadEvents.RangeRequest event = new DownloadEvents.RangeRequest();
+                    event.begin();
+                    long requestStart = System.nanoTime();
+                    response = this.openRange(mirror, requestRanges, requestRanges.indexOf(',') != -1);
+                    if (response == null) {
+                        continue;       // The server refused several ranges at once, they are requested one by one.
+                    }
+                    if (!range.setResponse(response)) {
+                        throw new IOException("Range was cancelled.");
+                    }
+                    this.metrics.rangeOpened(System.nanoTime() - requestStart);
+                    if (event.shouldCommit()) {
+                        event.file = this.download.getFileName();
+                        event.connection = this.id;
+                        event.mirror = url.toString();
+                        event.ranges = displayRanges;
+                        event.commit();
+                    }
+
+                    int nextChunk = this.readParts(response, range, chunkID, mirror);
+                    if (nextChunk == chunkID) {
+                        throw new IOException("Server answered without chunk " + chunkID + ".");
+                    }
+                    chunkID = nextChunk;
+                    range.setResponse(null);
+                    response.close();
+                    response = null;
+                }
+                this.scheduler.finishedRange(range);
+
+            } catch (ChunkWriter.WriteFailedException e) {
+                // Writing the .tmp file or the journal failed (e.g. the disk is full), which is not the mirror's fault
+                // and is not retried: the download is stopped.
+                this.scheduler.finishedRange(range);
+                this.download.writeFailed(e);
+            } catch (IOException e) {
+                if (range.isCancelled()) {
+                    // The copy of the range in the endgame downloaded the chunk first and aborted this answer (or the
+                    // download was stopped, e.g. as the file changed on the server or it was cancelled).
+                    int abortedChunk = range.getInFlightChunk() != -1 ? range.getInFlightChunk() : chunkID;
+                    this.scheduler.finishedRange(range);
+                    if (!this.scheduler.isStopped()) {
+                        this.download.printLine("[" + this.id + "] Stopped downloading chunk " + abortedChunk
+                                + ", another connection downloaded it first");
+                    }
+                    continue;
+                }
+                int failedChunk = this.failedChunk(range, chunkID);
+                if (failedChunk == -1) {
+                    // No chunk of the range is left to read (the rest of it was taken over), nothing failed.
+                    this.scheduler.finishedRange(range);
+                    continue;
+                }
+                rangeFailed = true;
+                this.scheduler.failedRange(range, failedChunk);
+                this.tuner.failedRange();
+                this.metrics.rangeFailed();
+                DownloadEvents.RangeFailed event = new DownloadEvents.RangeFailed();
+                if (event.shouldCommit()) {
+                    event.file = this.download.getFileName();
+                    event.connection = this.id;
+                    event.mirror = url.toString();
+                    event.chunk = failedChunk;
+                    event.reason = e.getMessage();
+                    event.commit();
+                }
+                this.download.printError("[" + this.id + "] Failed at chunk " + failedChunk + " (" + e.getMessage()
+                        + "), the rest of the range will be retried");
+            } catch (InterruptedException e) {
+                interrupted = true;
+                int abandonedChunk = this.failedChunk(range, chunkID);
+                if (abandonedChunk != -1) {
+                    this.scheduler.abandonedRange(range, abandonedChunk);
+                } else {
+                    this.scheduler.finishedRange(range);
+                }
+            } finally {
+                if (response != null) {
+                    try {
+                        response.close();
+                    } catch (IOException e) {
+                        this.download.printError("[" + this.id + "]'s InputStream refuses to close.");
+                    }
+                    response = null;
+                }
+                if (connectionAcquired) {
+                    this.connectionBudget.release(url.getHost());
+                }
+                this.mirrors.release(mirror, rangeFailed);
+            }
+        }
+        if (this.directBuffer != null) {
+            this.bufferPool.release(this.directBuffer);
+        }
+        if (interrupted) {
+            this.download.printError("[" + this.id + "] Stopped running due to interruption");
+        } else {
+            this.download.printLine("[" + this.id + "] Finished downloading");
+        }
+    }
+
+
+    /* Function reads the chunks of every part of an answer, up to the end of the range. Data of chunks that are not
+     * missing (the server may coalesce the requested ranges into bigger parts) is dropped.
+     * Input: The answer, the range it was requested for, the first chunk it was requested from and the mirror.
+     * Output: The next missing chunk to read after the answer (-1 if none is left in the file or the rest of the
+     *         range was taken over by another thread).
+     * Throws an IOException when a part is not made of whole chunks or skips a missing chunk.
+     */
+    private int readParts(RangeResponse response, ChunkRange range, int chunkID, int mirror)
+            throws IOException, InterruptedException {
+        long[] part;
+        while ((part = response.nextPart()) != null) {
+            int partFirstChunk = this.metadata.getChunkAt(part[0]);
+            int partLastChunk = this.metadata.getChunkAt(part[1]);
+            if (partLastChunk >= this.metadata.getLength() || part[0] != this.metadata.getChunkOffset(partFirstChunk)
+                    || part[1] != this.metadata.getChunkOffset(partLastChunk) + this.metadata.getChunkBytes(partLastChunk) - 1) {
+                throw new IOException("Server answered bytes " + part[0] + "-" + part[1] + ", which are not whole chunks.");
+            }
+            if (chunkID != -1 && partFirstChunk > chunkID) {
+                throw new IOException("Server answered without chunk " + chunkID + ".");
+            }
+            for (int partChunk = partFirstChunk; partChunk <= partLastChunk; partChunk++) {
+                // Stops reading once past the end of the range (another thread took over the rest of it), instead of
+                // reading the other thread's chunks only to drop them.
+                if (partChunk > range.getLastChunk()) {
+                    response.abort();
+                    return -1;
+                }
+                int byteLength = this.metadata.getChunkBytes(partChunk);
+                if (partChunk != chunkID) {
+                    response.skip(byteLength);
+                    continue;
+                }
+                // Stops reading once the remaining chunks of the range were taken over by another thread (or another
+                // copy of the chunk completed first, in the endgame).
+                if (!this.scheduler.claimChunk(range, chunkID)) {
+                    return -1;
+                }
+                // Stops reading once another copy of the chunk completed first (in the endgame).
+                if (!this.readChunk(response, range, chunkID, byteLength, mirror)) {
+                    response.abort();
+                    if (!this.scheduler.isStopped()) {
+                        this.download.printLine("[" + this.id + "] Stopped downloading chunk " + chunkID
+                                + ", another connection downloaded it first");
+                    }
+                    return -1;
+                }
+                chunkID = this.nextMissingChunk(chunkID + 1);
+            }
+        }
+        return chunkID;
+    }
+
+
+    /* Function reads a single chunk from the answer and writes it (or puts it in the queue of the writer thread),
+     * unless another copy of it completed first.
+     * Input: The answer, the range, an integer corresponding to the chunk's location in the array, the chunk's length
+     *        in bytes and the mirror it is read from.
+     * Output: A boolean variable indicating if the chunk was written (F: another copy of it completed first).
+     */
+    private boolean readChunk(RangeResponse response, ChunkRange range, int chunkID, int byteLength, int mirror)
+            throws IOException, InterruptedException {
+        // The time spent waiting for the rate limits is not counted in the answer's read timeout.
+        response.pauseReadTimer();
+        try {
+            this.download.throttle(byteLength);
+        } finally {
+            response.resumeReadTimer();
+        }
+        ReadableByteChannel inputChannel = response.getChannel();
+
+        // With a memory-mapped .tmp file the chunk is read straight into its region (unless the range is downloaded
+        // twice in the endgame, in which case only the copy that completes first is put in the region).
+        if (this.writer != null && this.writer.isMapped() && range.getCopy() == null) {
+            ByteBuffer region = this.writer.mapChunk(chunkID, byteLength);
+            long readStart = System.nanoTime();
+            MyTools.readFully(inputChannel, region);
+            this.mirrors.recordTransfer(mirror, byteLength, System.nanoTime() - readStart);
+            this.tuner.recordTransfer(byteLength);
+            this.metrics.chunkRead(this.id, byteLength);
+            if (!this.scheduler.completeChunk(range, chunkID)) {
+                return false;
+            }
+            region.flip();
+            this.writer.mappedChunkWritten(chunkID, MyTools.checksum(region), region);
+            return true;
+        }
+
+        // Queued chunks keep their buffer until the writer returns it to the pool.
+        ByteBuffer data = (this.directBuffer != null) ? this.directBuffer : this.bufferPool.acquire();
+        if (this.writer != null) {
+            this.directBuffer = data;
+        }
+        data.clear().limit(byteLength);
+        boolean queued = false;
+        try {
+            long readStart = System.nanoTime();
+            MyTools.readFully(inputChannel, data);
+            this.mirrors.recordTransfer(mirror, byteLength, System.nanoTime() - readStart);
+            this.tuner.recordTransfer(byteLength);
+            this.metrics.chunkRead(this.id, byteLength);
+            if (!this.scheduler.completeChunk(range, chunkID)) {
+                return false;
+            }
+            data.flip();
+
+            Chunk chunk = new Chunk(chunkID, data, MyTools.checksum(data));
+            if (this.writer != null) {
+                this.writer.write(chunk);
+            } else {
+                this.queue.put(chunk);
+                this.metrics.chunkQueued(byteLength);
+                queued = true;
+            }
+        } finally {
+            if (this.writer == null && !queued) {
+                this.bufferPool.release(data);
+            }
+        }
+        return true;
+    }
+
+
+    /* Function finds the chunk a range stopped at: the chunk its owner was reading, or else the first missing chunk
+     * the owner did not claim yet (when the answer failed between chunks). An answer is read past the chunk its
+     * request started at, so that chunk is often downloaded already.
+     * Input: The range and the first chunk of the failed request.
+     * Output: An integer corresponding to the chunk's location in the array (-1 if no chunk is left in the range).
+     */
+    private int failedChunk(ChunkRange range, int requestChunk) {
+        if (range.getInFlightChunk() != -1) {
+            return range.getInFlightChunk();
+        }
+        int chunkID = this.nextMissingChunk(Math.max(requestChunk, range.getNextChunk()));
+        return (chunkID <= range.getLastChunk()) ? chunkID : -1;
+    }
+
+
+    // Returns the first missing chunk from the given location (or -1 if none is left in the file).
+    private int nextMissingChunk(int fromChunk) {
+        return this.metadata.getNextChunkToDownload(fromChunk - 1);
+    }
+
+    /* Function requests ranges of bytes of the file from a mirror, through HttpURLConnection or java.net.http. Once
+     * the mirror gave the file's validator, the ranges are requested only if the file still has it there (If-Range).
+     * Every mirror has a validator of its own (mirrors do not give the same ETag for the same file), recorded from
+     * its first partial answer.
+     * Input: The mirror, the ranges in the HTTP range request format and whether there are several of them.
+     * Output: The answer (if the server refused several ranges at once, falls back to a request per range and
+     *         returns null).
+     * Throws an IOException when the request fails or the server does not answer with the requested ranges.
+     */
+    private RangeResponse openRange(int mirror, String requestRanges, boolean severalRanges) throws IOException, InterruptedException {
+        URL url = this.mirrors.getURL(mirror);
+        String validator = this.mirrors.getValidator(mirror);
+        if (this.httpClient != null) {
+            // The request's timeout only covers the answer's headers, the body is read with a timeout of its own.
+            HttpRequest.Builder request;
+            try {
+                request = HttpRequest.newBuilder(url.toURI())
+                        .timeout(Duration.ofMillis(this.timeout))
+                        .header("Range", "bytes=" + requestRanges)
+                        .GET();
+            } catch (URISyntaxException e) {
+                throw new IOException(e);
+            }
+            if (validator != null) {
+                request.header("If-Range", validator);
+            }
+            HttpResponse<InputStream> response = this.httpClient.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+            if (response.statusCode() != HttpURLConnection.HTTP_PARTIAL) {
+                response.body().close();
+                this.checkRemoteFile(mirror, response.statusCode(), validator, response.headers().map());
+                if (severalRanges && this.refusesSeveralRanges(response.statusCode())) {
+                    return null;
+                }
+                throw new IOException("Server answered " + response.statusCode() + " to a range request.");
+            }
+            if (validator == null) {
+                this.mirrors.recordValidator(mirror, RemoteFile.validatorOf(response.headers().map()));
+            }
+            return RangeResponse.open(response.headers().firstValue("Content-Type").orElse(null),
+                    response.headers().firstValue("Content-Range").orElse(null), response.body(), response.body(),
+                    this.timeout);
+        }
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("GET");
+        connection.setConnectTimeout(this.timeout);
+        connection.setReadTimeout(this.timeout);
+
+        // Get ranges of bytes from metadata
+        connection.setRequestProperty("Range", "bytes=" + requestRanges);
+        if (validator != null) {
+            connection.setRequestProperty("If-Range", validator);
+        }
+        connection.connect();
+        int responseCode = connection.getResponseCode();
+        if (responseCode != HttpURLConnection.HTTP_PARTIAL) {
+            connection.disconnect();
+            this.checkRemoteFile(mirror, responseCode, validator, connection.getHeaderFields());
+            if (severalRanges && this.refusesSeveralRanges(responseCode)) {
+                return null;
+            }
+            throw new IOException("Server answered " + responseCode + " to a range request.");
+        }
+        if (validator == null) {
+            this.mirrors.recordValidator(mirror, RemoteFile.validatorOf(connection.getHeaderFields()));
+        }
+        // Disconnecting alone does not wake a thread blocked reading the body, closing the body does
+        InputStream body = connection.getInputStream();
+        return RangeResponse.open(connection.getContentType(), connection.getHeaderField("Content-Range"), body, () -> {
+            body.close();
+            connection.disconnect();
+        }, 0);
+    }
+
+
+    /* Function checks whether a mirror answered a range request sent with If-Range with the whole file and another
+     * validator, i.e. the file changed on that mirror since it was first read from. The mirror is not used anymore
+     * (the range fails and is retried from another mirror), and the download is stopped only once the file changed
+     * on every mirror.
+     * Input: The mirror, the answer's status code, the validator the ranges were requested with and the answer's
+     *        headers.
+     * Throws an IOException when the file changed on the mirror.
+     */
+    private void checkRemoteFile(int mirror, int statusCode, String validator, Map<String, List<String>> headers)
+            throws IOException {
+        if (statusCode == HttpURLConnection.HTTP_OK && validator != null && !validator.equals(RemoteFile.validatorOf(headers))) {
+            if (this.mirrors.fileChanged(mirror)) {
+                this.download.remoteFileChanged();
+                throw new IOException("The file changed on the server.");
+            }
+            throw new IOException("The file changed on this mirror, it is not used anymore.");
+        }
+    }
+
+
+    // Falls back to a request per range when the server refused several ranges at once (by answering the whole file
+    // or that the ranges are not satisfiable). Returns true if it did.
+    private boolean refusesSeveralRanges(int statusCode) {
+        if (statusCode == HttpURLConnection.HTTP_OK || statusCode == 416) {
+            this.download.disableMultiRange(statusCode);
+            return true;
+        }
+        return false;
+    }
+
+    private String getDetails(String displayRanges, URL url) {
+        String rangeRef = displayRanges.contains(",") ? " ranges " : " range ";
+        return "[" + this.id + "] Start downloading" + rangeRef + displayRanges + " from:\n" + url.toString();
+    }
+}
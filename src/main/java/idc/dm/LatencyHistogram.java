@@ -0,0 +1,66 @@
+package idc.dm;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/* A lock-free histogram of latencies in power of two buckets: bucket i counts the latencies of 2^(i-1) up to 2^i
+ * nanoseconds, so recording a latency is a single atomic increment and a percentile is off by up to a factor of 2.
+ */
+class LatencyHistogram {
+    private AtomicLongArray buckets;        // Number of latencies recorded in each bucket.
+    private AtomicLong maxNanos;            // The longest latency recorded.
+    static final int NUMBER_OF_BUCKETS = 64;
+
+    LatencyHistogram() {
+        this.buckets = new AtomicLongArray(NUMBER_OF_BUCKETS);
+        this.maxNanos = new AtomicLong();
+    }
+
+
+    /* Function records a latency.
+     * Input: The latency in nanoseconds.
+     */
+    void record(long nanos) {
+        int bucket = Math.min(NUMBER_OF_BUCKETS - 1, Long.SIZE - Long.numberOfLeadingZeros(Math.max(0, nanos)));
+        this.buckets.incrementAndGet(bucket);
+        this.maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+
+    /* Function estimates a percentile of the recorded latencies by the upper bound of the bucket it falls in.
+     * Input: The percentile as a fraction (e.g. 0.99).
+     * Output: The estimated latency in nanoseconds (0 if nothing was recorded).
+     */
+    long percentile(double fraction) {
+        long[] counts = new long[NUMBER_OF_BUCKETS];
+        long total = 0;
+        for (int i = 0; i < NUMBER_OF_BUCKETS; i++) {
+            counts[i] = this.buckets.get(i);
+            total += counts[i];
+        }
+        long rank = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        for (int i = 0; i < NUMBER_OF_BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && counts[i] > 0) {
+                return Math.min((i == 0) ? 0 : 1L << Math.min(i, 62), this.maxNanos.get());
+            }
+        }
+        return 0;
+    }
+
+
+    // Returns the number of latencies recorded.
+    long getCount() {
+        long total = 0;
+        for (int i = 0; i < NUMBER_OF_BUCKETS; i++) {
+            total += this.buckets.get(i);
+        }
+        return total;
+    }
+
+    // Returns the longest latency recorded in nanoseconds.
+    long getMaxNanos() {
+        return this.maxNanos.get();
+    }
+}
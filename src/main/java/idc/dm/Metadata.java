@@ -0,0 +1,404 @@
+package idc.dm;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+class Metadata implements java.io.Serializable {
+    private static final long serialVersionUID = -2555279159765617367L;   // Matching metadata files of older versions.
+    private transient AtomicLongArray words;    // Bitset of the status of each chunk of file, 64 chunks a word (1: downloaded, 0: Missing).
+    private transient long[] inFlight;          // Bitset of the chunks being downloaded, 64 chunks a word (1: a copy is being read),
+                                                // only accessed under the lock of the scheduler.
+    private transient long[] landed;            // Bitset of the chunks a copy of which completed, 64 chunks a word (1: the
+                                                // chunk is written or waits to be), only accessed under the same lock.
+    private transient int numberOfChunks;       // Number of chunks in the file.
+    private transient AtomicInteger completedChunks;    // Number of chunks that were downloaded so far.
+    private int chunkSize;
+    private int lastChunkInBytes;
+    private transient int firstTailChunk;       // Location of the first chunk of the tail (the length of the array if none).
+    private transient int tailChunkSize;        // Number in bytes each chunk of the tail contains (except last chunk).
+
+    // Metadata is serialized in the format of older versions: a boolean array with a cell per chunk.
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("chunks", boolean[].class),
+            new ObjectStreamField("chunkSize", int.class),
+            new ObjectStreamField("lastChunkInBytes", int.class)
+    };
+
+    Metadata(int numberOfChunks, int chunkSize, int lastChunkInBytes) {
+        this(numberOfChunks, chunkSize, numberOfChunks, chunkSize, lastChunkInBytes);
+    }
+
+    /* The file is split to chunks of chunkSize bytes, except for its tail (starting at a multiple of chunkSize) which
+     * is split to finer chunks of tailChunkSize bytes, so the last ranges of a download can be split between the
+     * downloaders more evenly without the whole file having millions of chunks.
+     */
+    Metadata(int numberOfChunks, int chunkSize, int firstTailChunk, int tailChunkSize, int lastChunkInBytes) {
+        this.numberOfChunks = numberOfChunks;
+        this.words = new AtomicLongArray((numberOfChunks + 63) >>> 6);
+        this.completedChunks = new AtomicInteger();
+        this.inFlight = new long[words.length()];
+        this.landed = new long[words.length()];
+        this.chunkSize = chunkSize;             // Number in bytes each chunk contains (except the tail's chunks).
+        this.firstTailChunk = firstTailChunk;
+        this.tailChunkSize = tailChunkSize;
+        this.lastChunkInBytes = lastChunkInBytes; // Number in bytes of the last chunks.
+    }
+
+
+    /* Function lays out the chunks of a file: chunks of the given size, and the given number of bytes at the end of
+     * the file (rounded to whole chunks) in finer chunks of the tail's size.
+     * Input: The file's size in bytes, the chunk size, the chunk size of the tail (dividing the chunk size) and the
+     *        number of bytes in the tail.
+     * Output: The metadata of the file (if the file has more chunks than maxChunks, returns null).
+     */
+    static Metadata forFile(long fileSize, int chunkSize, int tailChunkSize, long tailBytes, int maxChunks) {
+        long chunksInFile = (fileSize + chunkSize - 1) / chunkSize;
+        long firstTailChunk = Math.max(0, chunksInFile - (tailBytes + chunkSize - 1) / chunkSize);
+        long tailStart = firstTailChunk * chunkSize;
+        long tailChunks = (fileSize - tailStart + tailChunkSize - 1) / tailChunkSize;
+        if (firstTailChunk + tailChunks > maxChunks || fileSize <= 0) {
+            return null;
+        }
+        int lastChunkInBytes = (int) (fileSize - tailStart - (tailChunks - 1) * tailChunkSize);
+        return new Metadata((int) (firstTailChunk + tailChunks), chunkSize, (int) firstTailChunk, tailChunkSize,
+                lastChunkInBytes);
+    }
+
+
+    /* Function sets a chunk's bit in the bitset. The bitset is written by the journal's owner and read by the
+     * scheduler and the hasher without a common lock, so its words and the counter are updated atomically.
+     * Input: AN integer corresponding to the chunk's location in the array.
+     */
+    void downloadedChunk(int chunkID) {
+        long mask = 1L << chunkID;
+        if ((words.getAndAccumulate(chunkID >>> 6, mask, (word, bit) -> word | bit) & mask) == 0) {
+            completedChunks.incrementAndGet();
+        }
+    }
+
+
+    /* Function clears a chunk's bit in the bitset (the chunk is downloaded again).
+     * Input: An integer corresponding to the chunk's location in the array.
+     */
+    void missingChunk(int chunkID) {
+        long mask = 1L << chunkID;
+        if ((words.getAndAccumulate(chunkID >>> 6, ~mask, (word, bits) -> word & bits) & mask) != 0) {
+            completedChunks.decrementAndGet();
+        }
+    }
+
+
+    /* Function records that a copy of a chunk is being read (in the bitset of the chunks in flight, which is kept
+     * apart from the downloaded chunks: a chunk stays in flight until a copy of it completes).
+     * Input: An integer corresponding to the chunk's location in the array.
+     */
+    void inFlightChunk(int chunkID) {
+        inFlight[chunkID >>> 6] |= 1L << chunkID;
+    }
+
+
+    /* Function records that a copy of a chunk completed, if the chunk is still in flight. The chunk stays landed
+     * from then on, also while it waits to be written (before it is recorded as downloaded).
+     * Input: An integer corresponding to the chunk's location in the array.
+     * Output: A boolean variable indicating if the chunk was in flight (F: another copy of it completed first).
+     */
+    boolean landedChunk(int chunkID) {
+        long mask = 1L << chunkID;
+        if ((inFlight[chunkID >>> 6] & mask) == 0) {
+            return false;
+        }
+        inFlight[chunkID >>> 6] &= ~mask;
+        landed[chunkID >>> 6] |= mask;
+        return true;
+    }
+
+
+    /* Function checks if a copy of a chunk completed (the chunk was written or waits to be).
+     * Input: An integer corresponding to the chunk's location in the array.
+     * Output: A boolean variable corresponding to the required answer.
+     */
+    boolean isChunkLanded(int chunkID) {
+        return (landed[chunkID >>> 6] & (1L << chunkID)) != 0;
+    }
+
+
+    /* Function checks if a copy of a chunk is being read and none completed yet.
+     * Input: An integer corresponding to the chunk's location in the array.
+     * Output: A boolean variable corresponding to the required answer.
+     */
+    boolean isChunkInFlight(int chunkID) {
+        return (inFlight[chunkID >>> 6] & (1L << chunkID)) != 0;
+    }
+
+
+    /* Function checks if a chunk's bit in the bitset is set.
+     * Input: An integer corresponding to the chunk's location in the array.
+     * Output: A boolean variable corresponding to the required answer.
+     */
+    boolean isChunkDownloaded(int chunkID) {
+        return (words.get(chunkID >>> 6) & (1L << chunkID)) != 0;
+    }
+
+
+    /* Function checks if all chunks were downloaded.
+     * Output: A boolean variable corresponding to the required answer.
+     */
+    boolean isDownloadComplete() {
+        return completedChunks.get() == numberOfChunks;
+    }
+
+
+    /* Function gets the percentage of downloaded chunks out of the total number of chunks.
+     * Output: An integer corresponding to the required percentage.
+     */
+    int downloadStatus() {
+        return (int) ((((long) completedChunks.get()) * 100) / numberOfChunks);
+    }
+
+
+    /*  Function gets the ranges in bytes to be downloaded for a range request header.
+     *  Input: Integers corresponding to the first and last chunks' locations in the array from where to achieve the ranges.
+     *  Output: A string corresponding to the ranges to be downloaded from the required range.
+     */
+    String getRanges(int offset, int ending) {
+        StringBuilder ranges = new StringBuilder();
+        int first = nextClearBit(offset);
+
+        while (first != -1 && first <= ending) {
+            int last = Math.min(nextSetBit(first), ending + 1) - 1;
+            if (ranges.length() > 0) {
+                ranges.append(", ");
+            }
+            ranges.append("(");
+            ranges.append(getChunkOffset(first));
+            ranges.append(" - ");
+            ranges.append(getChunkOffset(last) + getChunkBytes(last) - 1);
+            ranges.append(")");
+            first = (last == ending) ? -1 : nextClearBit(last + 1);
+        }
+        return ranges.toString();
+    }
+
+
+    /* Function gets the end of the given number of runs of missing chunks, starting from a missing chunk.
+     * Input: Integers corresponding to the first missing chunk, the last chunk the runs may reach and the number of runs.
+     * Output: An integer corresponding to the last missing chunk of the runs (at most the given last chunk).
+     */
+    int getLastChunkOfRuns(int startingChunk, int ending, int numberOfRuns) {
+        int first = startingChunk;
+        int last = startingChunk;
+        for (int run = 0; run < numberOfRuns && first != -1 && first <= ending; run++) {
+            last = Math.min(nextSetBit(first), ending + 1) - 1;
+            first = (last == ending) ? -1 : nextClearBit(last + 1);
+        }
+        return last;
+    }
+
+
+    /* Function gets the number of chunks that were not downloaded yet.
+     * Output: An integer corresponding to the required number.
+     */
+    int getRemainingChunkNumber() {
+        return numberOfChunks - completedChunks.get();
+    }
+
+
+    /* Function gets the next chunk's location in the array that was not downloaded yet.
+     * Input: An integer corresponding to the current location in the array.
+     * Output: An integer corresponding to required answer (if no such chunk exists, returns -1).
+     */
+    int getNextChunkToDownload(int currentPosition) {
+        return nextClearBit(currentPosition + 1);
+    }
+
+
+    /* Function gets the last missing chunk's location in the array given start position and missing chunk number in range.
+     * Input:  - An integer corresponding to the starting location of the range in the array.
+     *         - An integer corresponding to the number of chunks allocated for the range.
+     * Output: An integer corresponding to required answer (if no such range exists, returns -1).
+     */
+    int getLastChunkInRange(int startingChunk, int chunksInRange) {
+        if (startingChunk < 0 || startingChunk >= numberOfChunks || chunksInRange <= 0) {
+            return -1;
+        }
+        int wordIndex = startingChunk >>> 6;
+        long missing = ~words.get(wordIndex) & (-1L << startingChunk);
+        int rangeCounter = 0;
+        while (true) {
+            int missingInWord = Long.bitCount(missing);
+            if (rangeCounter + missingInWord >= chunksInRange) {
+                // The required chunk is in this word: dropping the lowest missing bits until reaching it.
+                for (int i = rangeCounter + 1; i < chunksInRange; i++) {
+                    missing &= missing - 1;
+                }
+                int chunkID = (wordIndex << 6) + Long.numberOfTrailingZeros(missing);
+                return chunkID < numberOfChunks ? chunkID : -1;
+            }
+            rangeCounter += missingInWord;
+            if (++wordIndex == words.length()) {
+                return -1;
+            }
+            missing = ~words.get(wordIndex);
+        }
+    }
+
+
+    /* Function gets the next length of the array.
+     * Output: An integer corresponding to required answer.
+     */
+    int getLength() {
+        return numberOfChunks;
+    }
+
+
+    /* Function gets the number of bytes the last chunk in the array contains.
+     * Output: An integer corresponding to required answer.
+     */
+    int getLastChunkInBytes() {
+        return this.lastChunkInBytes;
+    }
+
+
+    /* Function gets the number of bytes a chunks in the array contains (chunks of the tail contain fewer).
+     * Output: An integer corresponding to required answer.
+     */
+    int getChunkSize() {
+        return this.chunkSize;
+    }
+
+
+    // Returns the location in the array of the first chunk of the tail (the length of the array if there is no tail).
+    int getFirstTailChunk() {
+        return this.firstTailChunk;
+    }
+
+    // Returns the number of bytes a chunk of the tail contains.
+    int getTailChunkSize() {
+        return this.tailChunkSize;
+    }
+
+
+    /* Function gets the offset in the file of a chunk's first byte.
+     * Input: An integer corresponding to the chunk's location in the array.
+     * Output: A long corresponding to the required offset.
+     */
+    long getChunkOffset(int chunkID) {
+        if (chunkID < this.firstTailChunk) {
+            return (long) chunkID * this.chunkSize;
+        }
+        return (long) this.firstTailChunk * this.chunkSize + (long) (chunkID - this.firstTailChunk) * this.tailChunkSize;
+    }
+
+
+    /* Function gets the number of bytes a chunk contains.
+     * Input: An integer corresponding to the chunk's location in the array.
+     * Output: An integer corresponding to the required number.
+     */
+    int getChunkBytes(int chunkID) {
+        if (chunkID == this.numberOfChunks - 1) {
+            return this.lastChunkInBytes;
+        }
+        return (chunkID < this.firstTailChunk) ? this.chunkSize : this.tailChunkSize;
+    }
+
+
+    /* Function gets the chunk a byte of the file belongs to.
+     * Input: A long corresponding to the byte's offset in the file.
+     * Output: An integer corresponding to the chunk's location in the array (may be past the array's end).
+     */
+    int getChunkAt(long offset) {
+        long tailStart = (long) this.firstTailChunk * this.chunkSize;
+        if (offset < tailStart) {
+            return (int) (offset / this.chunkSize);
+        }
+        return (int) Math.min(Integer.MAX_VALUE, this.firstTailChunk + (offset - tailStart) / this.tailChunkSize);
+    }
+
+
+    /* Function finds the first missing chunk starting from a given location, a word of the bitset at a time.
+     * Input: An integer corresponding to the location in the array to start from.
+     * Output: An integer corresponding to required answer (if no such chunk exists, returns -1).
+     */
+    private int nextClearBit(int fromChunk) {
+        if (fromChunk >= numberOfChunks) {
+            return -1;
+        }
+        int wordIndex = fromChunk >>> 6;
+        long missing = ~words.get(wordIndex) & (-1L << fromChunk);
+        while (missing == 0) {
+            if (++wordIndex == words.length()) {
+                return -1;
+            }
+            missing = ~words.get(wordIndex);
+        }
+        int chunkID = (wordIndex << 6) + Long.numberOfTrailingZeros(missing);
+        return chunkID < numberOfChunks ? chunkID : -1;
+    }
+
+
+    /* Function finds the first downloaded chunk starting from a given location, a word of the bitset at a time.
+     * Input: An integer corresponding to the location in the array to start from.
+     * Output: An integer corresponding to required answer (if no such chunk exists, returns the length of the array).
+     */
+    private int nextSetBit(int fromChunk) {
+        if (fromChunk >= numberOfChunks) {
+            return numberOfChunks;
+        }
+        int wordIndex = fromChunk >>> 6;
+        long downloaded = words.get(wordIndex) & (-1L << fromChunk);
+        while (downloaded == 0) {
+            if (++wordIndex == words.length()) {
+                return numberOfChunks;
+            }
+            downloaded = words.get(wordIndex);
+        }
+        return Math.min((wordIndex << 6) + Long.numberOfTrailingZeros(downloaded), numberOfChunks);
+    }
+
+
+    // Writes the bitset as the boolean array older versions serialized (which have no tail of finer chunks).
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        if (firstTailChunk < numberOfChunks) {
+            throw new NotSerializableException("Metadata with a tail of finer chunks has no legacy format.");
+        }
+        boolean[] chunks = new boolean[numberOfChunks];
+        for (int i = 0; i < numberOfChunks; i++) {
+            chunks[i] = isChunkDownloaded(i);
+        }
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("chunks", chunks);
+        fields.put("chunkSize", chunkSize);
+        fields.put("lastChunkInBytes", lastChunkInBytes);
+        out.writeFields();
+    }
+
+
+    // Reads the boolean array older versions serialized into the bitset.
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        boolean[] chunks = (boolean[]) fields.get("chunks", null);
+        if (chunks == null) {
+            throw new InvalidObjectException("Metadata has no chunks.");
+        }
+        this.chunkSize = fields.get("chunkSize", 0);
+        this.lastChunkInBytes = fields.get("lastChunkInBytes", 0);
+        this.numberOfChunks = chunks.length;
+        this.firstTailChunk = numberOfChunks;
+        this.tailChunkSize = chunkSize;
+        this.words = new AtomicLongArray((numberOfChunks + 63) >>> 6);
+        this.completedChunks = new AtomicInteger();
+        this.inFlight = new long[words.length()];
+        this.landed = new long[words.length()];
+        for (int i = 0; i < numberOfChunks; i++) {
+            if (chunks[i]) {
+                downloadedChunk(i);
+            }
+        }
+    }
+}
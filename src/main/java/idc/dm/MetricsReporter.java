@@ -0,0 +1,147 @@
+package idc.dm;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import jdk.jfr.FlightRecorder;
+
+/* Publishes the metrics of the running downloads: every download is registered as a JMX MBean, a JFR throughput
+ * event is emitted per download every second of a flight recording, and the metrics are sampled every interval
+ * and, when a metrics file is given, appended to it as a line of JSON per download.
+ */
+class MetricsReporter {
+    private List<DownloadMetrics> downloads;      // Metrics of the downloads running now.
+    private ScheduledExecutorService sampler;     // Samples the metrics every interval.
+    private Writer metricsFile;                   // The JSON lines file (null when not given).
+    private MBeanServer mbeanServer;
+    private Runnable throughputEvents;            // The hook emitting the periodic JFR events.
+
+    private MetricsReporter(Writer metricsFile, long intervalMillis) {
+        this.downloads = new CopyOnWriteArrayList<>();
+        this.metricsFile = metricsFile;
+        this.mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        this.sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.sampler.scheduleAtFixedRate(this::report, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        this.throughputEvents = this::emitThroughputEvents;
+        FlightRecorder.addPeriodicEvent(DownloadEvents.Throughput.class, this.throughputEvents);
+    }
+
+
+    /* Function starts reporting metrics.
+     * Input: The path of the JSON lines file the metrics are appended to (null for none) and the sampling interval.
+     * Output: The reporter or null if the metrics file could not be opened.
+     */
+    static MetricsReporter create(String metricsFilePath, long intervalMillis) {
+        Writer metricsFile = null;
+        if (metricsFilePath != null) {
+            try {
+                metricsFile = new BufferedWriter(new FileWriter(metricsFilePath, true));
+            } catch (IOException e) {
+                return null;
+            }
+        }
+        return new MetricsReporter(metricsFile, intervalMillis);
+    }
+
+
+    /* Function registers the metrics of a download that starts running.
+     * Input: The download's metrics.
+     */
+    void register(DownloadMetrics metrics) {
+        this.downloads.add(metrics);
+        try {
+            this.mbeanServer.registerMBean(metrics, objectName(metrics));
+        } catch (JMException e) {
+            System.err.println("Metrics of " + metrics.getFileName() + " could not be registered in JMX.");
+        }
+    }
+
+
+    /* Function unregisters the metrics of a download that finished, reporting them one last time.
+     * Input: The download's metrics.
+     */
+    void unregister(DownloadMetrics metrics) {
+        metrics.sample();
+        this.write(metrics);
+        this.downloads.remove(metrics);
+        try {
+            this.mbeanServer.unregisterMBean(objectName(metrics));
+        } catch (JMException ignored) {
+        }
+    }
+
+
+    /* Function stops reporting and closes the metrics file.
+     */
+    void close() {
+        this.sampler.shutdownNow();
+        FlightRecorder.removePeriodicEvent(this.throughputEvents);
+        if (this.metricsFile != null) {
+            synchronized (this) {
+                try {
+                    this.metricsFile.close();
+                } catch (IOException e) {
+                    System.err.println("Metrics file refuses to close.");
+                }
+                this.metricsFile = null;
+            }
+        }
+    }
+
+
+    // Samples the metrics of every running download and writes them to the metrics file.
+    private void report() {
+        for (DownloadMetrics metrics : this.downloads) {
+            metrics.sample();
+            this.write(metrics);
+        }
+    }
+
+
+    // Appends the metrics of a download to the metrics file as a line of JSON (does nothing when there is none).
+    private synchronized void write(DownloadMetrics metrics) {
+        if (this.metricsFile == null) {
+            return;
+        }
+        try {
+            this.metricsFile.write(metrics.toJson());
+            this.metricsFile.write(System.lineSeparator());
+            this.metricsFile.flush();
+        } catch (IOException e) {
+            System.err.println("Could not write to metrics file, metrics are no longer written.");
+            this.metricsFile = null;
+        }
+    }
+
+
+    // Emits a JFR throughput event per running download.
+    private void emitThroughputEvents() {
+        for (DownloadMetrics metrics : this.downloads) {
+            DownloadEvents.Throughput event = new DownloadEvents.Throughput();
+            event.file = metrics.getFileName();
+            event.bytesPerSecond = metrics.getBytesPerSecond();
+            event.connections = metrics.getTargetConnections();
+            event.queueDepth = metrics.getQueueDepth();
+            event.queuedBytes = metrics.getQueuedBytes();
+            event.retries = metrics.getRetries();
+            event.commit();
+        }
+    }
+
+
+    // Returns the JMX name of a download's metrics.
+    private static ObjectName objectName(DownloadMetrics metrics) throws JMException {
+        return new ObjectName("IdcDm:type=Download,name=" + ObjectName.quote(metrics.getFileName()));
+    }
+}
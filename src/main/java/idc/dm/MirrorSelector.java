@@ -0,0 +1,168 @@
+package idc.dm;
+
+import java.net.URL;
+
+class MirrorSelector {
+    private URL[] urls;                     // The mirrors of the file.
+    private double[] rates;                 // Moving average of the bytes per second a single connection to each mirror reads.
+    private long[] bytes;                   // Number of bytes read from each mirror.
+    private long[] readNanos;               // Time spent reading from each mirror (summed over its connections).
+    private int[] errors;                   // Number of ranges each mirror failed.
+    private int[] consecutiveErrors;        // Number of ranges each mirror failed since its last successful range.
+    private int[] activeConnections;        // Number of connections currently reading from each mirror.
+    private long[] cooldownEnds;            // Time (System.nanoTime) until which each mirror is avoided.
+    private String[] validators;            // Validator of the file on each mirror, sent in If-Range (null: not known yet).
+    private boolean[] changed;              // T: the file changed on the mirror while downloading, it is not used anymore.
+    final double RATE_WEIGHT = 0.3;                     // Weight of a new chunk's rate in the moving average.
+    final long COOLDOWN_NANOS = 5_000_000_000L;         // Avoiding a failing mirror for 5 seconds, doubled per failure.
+    final int MAX_COOLDOWN_DOUBLINGS = 4;               // Up to 80 seconds.
+
+    MirrorSelector(URL[] urls) {
+        this.urls = urls;
+        this.rates = new double[urls.length];
+        this.bytes = new long[urls.length];
+        this.readNanos = new long[urls.length];
+        this.errors = new int[urls.length];
+        this.consecutiveErrors = new int[urls.length];
+        this.activeConnections = new int[urls.length];
+        this.cooldownEnds = new long[urls.length];
+        this.validators = new String[urls.length];
+        this.changed = new boolean[urls.length];
+    }
+
+
+    /* Function picks the mirror the next range is read from. Mirrors that were not measured yet are tried first, then
+     * the mirror a connection reads the fastest from. Cooling down mirrors are skipped unless all of them cool down,
+     * mirrors the file changed on are skipped unless it changed on all of them.
+     * Output: An integer corresponding to the mirror's location in the array.
+     */
+    synchronized int acquire() {
+        long now = System.nanoTime();
+        int best = -1;
+        for (int i = 0; i < this.urls.length; i++) {
+            if (this.changed[i] || this.cooldownEnds[i] - now > 0) {
+                continue;
+            }
+            if (best == -1 || this.isBetter(i, best)) {
+                best = i;
+            }
+        }
+        if (best == -1) {
+            for (int i = 0; i < this.urls.length; i++) {
+                if (best == -1 || (!this.changed[i] && (this.changed[best]
+                        || this.cooldownEnds[i] - this.cooldownEnds[best] < 0))) {
+                    best = i;
+                }
+            }
+        }
+        this.activeConnections[best]++;
+        return best;
+    }
+
+
+    // Returns true if a connection to mirror i is expected to be faster than to mirror j.
+    private boolean isBetter(int i, int j) {
+        boolean iMeasured = this.bytes[i] > 0;
+        boolean jMeasured = this.bytes[j] > 0;
+        if (iMeasured != jMeasured) {
+            return !iMeasured;
+        }
+        if (iMeasured && this.rates[i] != this.rates[j]) {
+            return this.rates[i] > this.rates[j];
+        }
+        return this.activeConnections[i] < this.activeConnections[j];
+    }
+
+
+    /* Function records a chunk read from a mirror.
+     * Input: An integer corresponding to the mirror's location in the array, the chunk's length in bytes and the time
+     *        it took to read it in nanoseconds.
+     */
+    synchronized void recordTransfer(int mirror, long chunkBytes, long nanos) {
+        double rate = chunkBytes * 1e9 / Math.max(1, nanos);
+        this.rates[mirror] = (this.bytes[mirror] == 0) ? rate : (1 - RATE_WEIGHT) * this.rates[mirror] + RATE_WEIGHT * rate;
+        this.bytes[mirror] += chunkBytes;
+        this.readNanos[mirror] += nanos;
+    }
+
+
+    /* Function releases a mirror after a range was read from it. A failed range cools the mirror down.
+     * Input: An integer corresponding to the mirror's location in the array and whether the range failed.
+     */
+    synchronized void release(int mirror, boolean failed) {
+        this.activeConnections[mirror]--;
+        if (failed) {
+            this.errors[mirror]++;
+            int doublings = Math.min(this.consecutiveErrors[mirror]++, MAX_COOLDOWN_DOUBLINGS);
+            this.cooldownEnds[mirror] = System.nanoTime() + (COOLDOWN_NANOS << doublings);
+        } else {
+            this.consecutiveErrors[mirror] = 0;
+        }
+    }
+
+
+    // Returns the validator of the file on the mirror (null if it is not known yet or the mirror gives none).
+    synchronized String getValidator(int mirror) {
+        return this.validators[mirror];
+    }
+
+    // Records the validator of the file on the mirror, unless one was recorded already (the first one is kept, so
+    // every later range from the mirror is requested only if the file still has it there).
+    synchronized void recordValidator(int mirror, String validator) {
+        if (this.validators[mirror] == null) {
+            this.validators[mirror] = validator;
+        }
+    }
+
+
+    /* Function records that the file changed on a mirror while it was downloaded (the mirror answered a range
+     * requested with its validator with the whole file). The mirror is not used anymore.
+     * Input: An integer corresponding to the mirror's location in the array.
+     * Output: A boolean variable indicating if the file changed on every mirror.
+     */
+    synchronized boolean fileChanged(int mirror) {
+        this.changed[mirror] = true;
+        for (boolean mirrorChanged : this.changed) {
+            if (!mirrorChanged) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    // Returns the URL of the mirror.
+    URL getURL(int mirror) {
+        return this.urls[mirror];
+    }
+
+
+    // Returns the number of mirrors.
+    int getNumberOfMirrors() {
+        return this.urls.length;
+    }
+
+
+    // Returns the number of bytes read from each mirror so far.
+    synchronized long[] getBytes() {
+        return this.bytes.clone();
+    }
+
+
+    /* Function describes the bytes, average rate per connection and failed ranges of every mirror.
+     * Output: A string with a line per mirror.
+     */
+    synchronized String getReport() {
+        StringBuilder report = new StringBuilder();
+        for (int i = 0; i < this.urls.length; i++) {
+            double megabytes = this.bytes[i] / 1048576.0;
+            double rate = (this.readNanos[i] == 0) ? 0 : megabytes * 1e9 / this.readNanos[i];
+            if (i > 0) {
+                report.append("\n");
+            }
+            report.append(String.format("Mirror %s: %.1f MB, %.2f MB/s per connection, %d failed ranges",
+                    this.urls[i], megabytes, rate, this.errors[i]));
+        }
+        return report.toString();
+    }
+}
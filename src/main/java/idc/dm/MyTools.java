@@ -0,0 +1,348 @@
+package idc.dm;
+
+import java.io.*;
+import java.net.*;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32C;
+
+class MyTools {
+
+    /* Function probes the details (length and digest) of a given URL file. It is probed with a HEAD request, and if
+     * the server does not answer a HEAD request with a Content-Length, with a request for the first byte
+     * (Range: bytes=0-0). The probe's connection is left open so the first range request reuses it.
+     * Given the validator of a copy of the file, the probe is conditional and the server may answer that the file
+     * did not change since.
+     * Input: An url, the java.net.http client ranges are requested with (null for HttpURLConnection) and the
+     *        validator of a copy of the file (null for an unconditional probe).
+     * Output: The details of the file returned by the url (if its length is unknown, returns null).
+     */
+    static RemoteFile probeRemoteFile(URL url, HttpClient httpClient, String validator) {
+        RemoteFile remoteFile = probeRemoteFile(url, httpClient, true, validator);
+        if (remoteFile == null) {     // If file size is not return (unknown) we cannot have concurrent connections.
+            remoteFile = probeRemoteFile(url, httpClient, false, validator);
+        }
+        return remoteFile;
+    }
+
+
+    /* Function sends a single probe for the details of a given URL file.
+     * Input: An url, the java.net.http client (null for HttpURLConnection), whether to send a HEAD request
+     *        (otherwise a GET request for the first byte is sent) and the validator of a copy of the file (or null).
+     * Output: The details of the file (if the answer does not tell its length, returns null).
+     */
+    private static RemoteFile probeRemoteFile(URL url, HttpClient httpClient, boolean head, String validator) {
+        final int TIMEOUT_TIME = 20 * 1000;     // Setting probe's timeout to 20 seconds (connection & read timeout).
+        if (httpClient != null) {
+            try {
+                HttpRequest.Builder request = HttpRequest.newBuilder(url.toURI()).timeout(Duration.ofMillis(TIMEOUT_TIME));
+                if (head) {
+                    request.method("HEAD", HttpRequest.BodyPublishers.noBody());
+                } else {
+                    request.header("Range", "bytes=0-0").GET();
+                }
+                if (validator != null) {
+                    request.header(RemoteFile.conditionHeader(validator), validator);
+                }
+                HttpResponse<InputStream> response = httpClient.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+                response.body().close();
+                if (!head && response.statusCode() == HttpURLConnection.HTTP_OK) {
+                    return null;    // The server ignores ranges.
+                }
+                return RemoteFile.fromResponse(response.statusCode(), response.headers().map());
+            } catch (IOException | URISyntaxException e) {
+                return null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) url.openConnection();
+            connection.setConnectTimeout(TIMEOUT_TIME);
+            connection.setReadTimeout(TIMEOUT_TIME);
+            if (head) {
+                connection.setRequestMethod("HEAD");
+            } else {
+                connection.setRequestProperty("Range", "bytes=0-0");
+            }
+            if (validator != null) {
+                connection.setRequestProperty(RemoteFile.conditionHeader(validator), validator);
+            }
+            int responseCode = connection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_PARTIAL || responseCode == HttpURLConnection.HTTP_NOT_MODIFIED
+                    || (responseCode == HttpURLConnection.HTTP_OK && head)) {
+                RemoteFile remoteFile = RemoteFile.fromResponse(responseCode, connection.getHeaderFields());
+                // Reading the rest of the answer (a single byte at most), so the connection is kept alive.
+                connection.getInputStream().readAllBytes();
+                connection.getInputStream().close();
+                connection = null;
+                return remoteFile;
+            }
+            // A GET answered with the whole file means the server ignores ranges (its connection cannot be kept alive).
+            return null;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+
+    /* Function extracts the first and last byte from a Content-Range header (e.g. "bytes 0-99/1234").
+     * Input: The header's value (may be null).
+     * Output: An array of the first and last byte (if they are missing or invalid, returns null).
+     */
+    static long[] parseContentRange(String contentRange) {
+        if (contentRange == null) {
+            return null;
+        }
+        String range = contentRange.trim();
+        int dash = range.indexOf('-');
+        int slash = range.indexOf('/');
+        if (!range.startsWith("bytes ") || dash == -1 || (slash != -1 && slash < dash)) {
+            return null;
+        }
+        try {
+            long first = Long.parseLong(range.substring("bytes ".length(), dash).trim());
+            long last = Long.parseLong(range.substring(dash + 1, slash == -1 ? range.length() : slash).trim());
+            return (first <= last) ? new long[]{first, last} : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+
+    /* Function extracts the complete length from a Content-Range header (e.g. "bytes 0-0/1234").
+     * Input: The header's value (may be null).
+     * Output: The complete length (if it is missing or unknown, returns -1).
+     */
+    static long parseContentRangeLength(String contentRange) {
+        if (contentRange == null || contentRange.indexOf('/') == -1) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(contentRange.indexOf('/') + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+
+    /* Function returns file name of a given URL.
+     * Input: The url.
+     * Output: The string corresponding to the file URL.
+     * Assumption: The url belongs to a file.
+     */
+    static String getFileNameFromURL(URL url) {
+        String urlString = url.toString();
+        return urlString.substring(urlString.lastIndexOf('/') + 1);
+    }
+
+
+    /* Function returns a created file.
+     * Input: A file.
+     * Output: A boolean indicator implying for the creation of the file.
+     */
+    static boolean fileCreator(File file) {
+        boolean created;
+        try {
+            created = file.createNewFile();
+        } catch (IOException e) {
+            return false;
+        }
+        return created;
+    }
+
+
+    /* Function returns a boolean variable that corresponds to success of serializing a given object to given file path;
+     * Input: A metadata object and a file path.
+     * Output: Boolean index of serialization status.
+     */
+    static boolean serializeMetadata(Metadata metadata, String metadataFilePath) {
+        FileOutputStream fileOut = null;
+        ObjectOutputStream out = null;
+        boolean completed = true;
+        try {
+            fileOut = new FileOutputStream(metadataFilePath);
+            out = new ObjectOutputStream(fileOut);
+            out.writeObject(metadata);
+        } catch (IOException e) {
+            completed = false;
+        } finally {
+            try {
+                if (out != null) {
+                    out.close();
+                }
+                if (fileOut != null) {
+                    fileOut.close();
+                }
+            } catch (IOException e) {
+                completed = false;
+            }
+        }
+        return completed;
+    }
+
+
+    /* Function de-serializing an object from file path; Metadata files written before the classes moved to the idc.dm
+     * package name the class Metadata in the default package, which is read as idc.dm.Metadata.
+     * Input: A file path.
+     * Output: The de-serialized object or null if an error occurred.
+     */
+    static Metadata deserializeMetadata(String metadataFilePath) {
+        Metadata metadata;
+        FileInputStream fileIn = null;
+        ObjectInputStream in = null;
+        try {
+            fileIn = new FileInputStream(metadataFilePath);
+            in = new LegacyMetadataInputStream(fileIn);
+            metadata = (Metadata) in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            metadata = null;
+        } finally {
+            try {
+                if (in != null) {
+                    in.close();
+                }
+                if (fileIn != null) {
+                    fileIn.close();
+                }
+            } catch (IOException e) {
+                metadata = null;
+            }
+        }
+        return metadata;
+    }
+
+
+    /* Function creates a RandomAccessFile.
+     * Input: A file path.
+     * Output: The created randomAccessFile or null if an error occurred.
+     */
+    static RandomAccessFile createRandomAccessFile(String tmpFilePath, long sizeOfFileInBytes) {
+        RandomAccessFile randomAccessFile;
+        try {
+            randomAccessFile = new RandomAccessFile(tmpFilePath, "rw");
+            randomAccessFile.setLength(sizeOfFileInBytes);
+        } catch (IOException e) {
+            return null;
+        }
+        return randomAccessFile;
+    }
+
+
+    /* Function parses a size in bytes with an optional K, M or G suffix (e.g. 64M).
+     * Input: A string representing the size.
+     * Output: The number of bytes (if the string is not a valid size, returns -1).
+     */
+    static long parseSize(String size) {
+        long multiplier = 1;
+        String digits = size.toUpperCase();
+        if (digits.endsWith("K") || digits.endsWith("M") || digits.endsWith("G")) {
+            multiplier = digits.endsWith("K") ? 1L << 10 : digits.endsWith("M") ? 1L << 20 : 1L << 30;
+            digits = digits.substring(0, digits.length() - 1);
+        }
+        try {
+            long value = Long.parseLong(digits);
+            return value < 0 ? -1 : value * multiplier;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+
+    /* Function reads from a channel until the given buffer is full.
+     * Input: The channel to read from and the buffer to fill (up to its limit).
+     * Throws an EOFException when the channel ends before the buffer is full.
+     */
+    static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) == -1) {
+                throw new EOFException("Connection closed " + buffer.remaining() + " bytes before the end of the chunk.");
+            }
+        }
+    }
+
+
+    /* Function computes the CRC32C checksum of a buffer's remaining bytes (the buffer's position is not moved).
+     * Input: The buffer.
+     * Output: The checksum.
+     */
+    static int checksum(ByteBuffer buffer) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate());
+        return (int) crc.getValue();
+    }
+
+
+    /* Function is given a string corresponding the format to display to user and converts it to the format
+     * an HTTP connection header demands.
+     * Input: Given ranges described in the required UI format.
+     * Output: The required corresponding HTTP range request format.
+     * Assumption: Given string represent a ranges.
+     */
+    static String convertRangesDisplayToRequest(String displayRanges) {
+        String requestRanges = displayRanges.replaceAll(" - ", "-");
+        requestRanges = requestRanges.replaceAll("\\(", "");
+        requestRanges = requestRanges.replaceAll("\\)", "");
+        return requestRanges;
+    }
+
+
+    /* Function creates an executor running every task on its own virtual thread, when the Java runtime has them (21+).
+     * Output: The executor (if virtual threads are not available, returns null).
+     */
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+
+    /* Function receives a source file name and destination file name and renames the
+     * source file's name to the destination file's name.
+     * Input : The paths of the source and destination files.
+     * Output: A boolean variable that corresponds to the succession of the renaming.
+     */
+    static boolean rename(String sourcePath, String destinationPath) {
+        Path src = Paths.get(sourcePath);
+        Path dst = Paths.get(destinationPath);
+        try {
+            Files.move(src, dst, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException ignored) {
+        }
+        return false;
+    }
+
+
+    // Reads serialized metadata, resolving the default package's Metadata of older versions to idc.dm.Metadata.
+    private static class LegacyMetadataInputStream extends ObjectInputStream {
+
+        LegacyMetadataInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        protected Class<?> resolveClass(ObjectStreamClass description) throws IOException, ClassNotFoundException {
+            if (description.getName().equals("Metadata")) {
+                return Metadata.class;
+            }
+            return super.resolveClass(description);
+        }
+    }
+}
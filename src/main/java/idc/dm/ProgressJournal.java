@@ -0,0 +1,279 @@
+package idc.dm;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+/* The on-disk progress of a download: a header followed by a bitmap of the downloaded chunks and the CRC32C
+ * checksum of each of them, which are memory-mapped so that recording a chunk sets a single bit and a single
+ * checksum instead of rewriting the whole metadata.
+ * Header layout: magic, version, number of chunks, chunk size, number of bytes in the last chunk, first chunk of the
+ * tail, chunk size of the tail and length of the validator (4 bytes each, versions 1 and 2 have no tail fields and
+ * version 3 has no validator), followed by the validator of the remote file the chunks were downloaded from (its
+ * strong ETag or Last-Modified date, in UTF-8).
+ * Body layout: the downloaded bitmap, the bitmap of the chunks with a checksum (chunks recorded by version 1 or by
+ * a legacy metadata file have none) and a 4 bytes checksum per chunk.
+ */
+class ProgressJournal {
+    static final int MAGIC = 0x49444D4A;          // "IDMJ"
+    static final int VERSION = 4;
+    static final int VERSION_WITHOUT_VALIDATOR = 3;
+    static final int VERSION_WITHOUT_TAIL = 2;
+    static final int VERSION_WITHOUT_CHECKSUMS = 1;
+    static final int HEADER_SIZE = 8 * Integer.BYTES;
+    static final int HEADER_SIZE_WITHOUT_VALIDATOR = 7 * Integer.BYTES;
+    static final int HEADER_SIZE_WITHOUT_TAIL = 5 * Integer.BYTES;
+    static final int MAX_VALIDATOR_LENGTH = 1024;   // A longer validator is not recorded (the file is not validated).
+    // The body is mapped as a single buffer (of up to 2GB), which limits a journal to about 505 million chunks
+    // (120TB in chunks of 256KB). Offsets in the file are 64-bit, only chunk numbers are 32-bit.
+    static final int MAX_CHUNKS = (int) ((Integer.MAX_VALUE - HEADER_SIZE - 2L) * Byte.SIZE / (2 + Byte.SIZE * Integer.BYTES));
+    private FileChannel channel;
+    private MappedByteBuffer body;                // The mapped bitmaps and checksums.
+    private Metadata metadata;
+    private String validator;                     // Validator of the remote file (null if none was recorded).
+    private int checksummedOffset;                // Offset in the body of the bitmap of the chunks with a checksum.
+    private int checksumsOffset;                  // Offset in the body of the checksums.
+
+    private ProgressJournal(FileChannel channel, MappedByteBuffer body, Metadata metadata, String validator) {
+        this.channel = channel;
+        this.body = body;
+        this.metadata = metadata;
+        this.validator = validator;
+        this.checksummedOffset = bitmapSize(metadata.getLength());
+        this.checksumsOffset = 2 * this.checksummedOffset;
+    }
+
+
+    /* Function writes a new journal for the given metadata into a copy file and atomically renames it over the
+     * journal's path, so a crash never leaves a partially written journal behind.
+     * Input: The metadata, the validator of the remote file (null if none), the journal's path and the path of the
+     *        copy file.
+     * Output: The opened journal or null if an error occurred.
+     */
+    static ProgressJournal create(Metadata metadata, String validator, String journalFilePath, String copyFilePath) {
+        byte[] validatorBytes = (validator == null) ? new byte[0] : validator.getBytes(StandardCharsets.UTF_8);
+        if (validatorBytes.length > MAX_VALIDATOR_LENGTH) {
+            validatorBytes = new byte[0];
+        }
+        int headerSize = HEADER_SIZE + validatorBytes.length;
+        int numberOfChunks = metadata.getLength();
+        ByteBuffer content = ByteBuffer.allocate(headerSize + bodySize(numberOfChunks));
+        content.putInt(MAGIC).putInt(VERSION).putInt(numberOfChunks);
+        content.putInt(metadata.getChunkSize()).putInt(metadata.getLastChunkInBytes());
+        content.putInt(metadata.getFirstTailChunk()).putInt(metadata.getTailChunkSize());
+        content.putInt(validatorBytes.length).put(validatorBytes);
+        for (int i = 0; i < numberOfChunks; i++) {
+            if (metadata.isChunkDownloaded(i)) {
+                int index = headerSize + (i >>> 3);
+                content.put(index, (byte) (content.get(index) | (1 << (i & 7))));
+            }
+        }
+        content.rewind();
+
+        try (FileChannel copyChannel = FileChannel.open(Paths.get(copyFilePath), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (content.hasRemaining()) {
+                copyChannel.write(content);
+            }
+            copyChannel.force(true);
+        } catch (IOException e) {
+            return null;
+        }
+        if (!MyTools.rename(copyFilePath, journalFilePath)) {
+            return null;
+        }
+        return map(journalFilePath, metadata, headerSize, validatorBytes.length == 0 ? null : validator);
+    }
+
+
+    /* Function opens an existing journal. A metadata file serialized by older versions is converted to a journal.
+     * A journal of version 1 is converted as well (its chunks have no checksum), while journals of versions 2 and 3
+     * are opened as is (their file has no tail of finer chunks and they have no validator, respectively).
+     * Input: The journal's path and the path of the copy file used for the conversion.
+     * Output: The opened journal or null if the file is damaged or an error occurred.
+     */
+    static ProgressJournal open(String journalFilePath, String copyFilePath) {
+        ByteBuffer header;
+        try (InputStream in = new FileInputStream(journalFilePath)) {
+            header = ByteBuffer.wrap(in.readNBytes(HEADER_SIZE + MAX_VALIDATOR_LENGTH));
+        } catch (IOException e) {
+            return null;
+        }
+
+        // A legacy metadata file is a Java serialization stream.
+        if (header.remaining() >= Short.BYTES && header.getShort(0) == ObjectStreamConstants.STREAM_MAGIC) {
+            Metadata metadata = MyTools.deserializeMetadata(journalFilePath);
+            return metadata == null ? null : create(metadata, null, journalFilePath, copyFilePath);
+        }
+        if (header.remaining() < HEADER_SIZE_WITHOUT_TAIL || header.getInt() != MAGIC) {
+            return null;
+        }
+        int version = header.getInt();
+        int numberOfChunks = header.getInt();
+        int chunkSize = header.getInt();
+        int lastChunkInBytes = header.getInt();
+        boolean hasTail = (version == VERSION || version == VERSION_WITHOUT_VALIDATOR);
+        int headerSize = (version == VERSION) ? HEADER_SIZE : hasTail ? HEADER_SIZE_WITHOUT_VALIDATOR : HEADER_SIZE_WITHOUT_TAIL;
+        if (numberOfChunks <= 0 || numberOfChunks > MAX_CHUNKS || header.limit() < headerSize) {
+            return null;
+        }
+        int firstTailChunk = hasTail ? header.getInt() : numberOfChunks;
+        int tailChunkSize = hasTail ? header.getInt() : chunkSize;
+        if (firstTailChunk < 0 || firstTailChunk > numberOfChunks || tailChunkSize <= 0) {
+            return null;
+        }
+        String validator = null;
+        if (version == VERSION) {
+            int validatorLength = header.getInt();
+            if (validatorLength < 0 || validatorLength > MAX_VALIDATOR_LENGTH || header.remaining() < validatorLength) {
+                return null;
+            }
+            byte[] validatorBytes = new byte[validatorLength];
+            header.get(validatorBytes);
+            validator = (validatorLength == 0) ? null : new String(validatorBytes, StandardCharsets.UTF_8);
+            headerSize += validatorLength;
+        }
+        long journalLength = new File(journalFilePath).length();
+        Metadata metadata = new Metadata(numberOfChunks, chunkSize, firstTailChunk, tailChunkSize, lastChunkInBytes);
+
+        if (version == VERSION_WITHOUT_CHECKSUMS) {
+            if (journalLength != headerSize + bitmapSize(numberOfChunks)) {
+                return null;
+            }
+            byte[] bitmap;
+            try (InputStream in = new FileInputStream(journalFilePath)) {
+                in.skipNBytes(headerSize);
+                bitmap = in.readNBytes(bitmapSize(numberOfChunks));
+            } catch (IOException e) {
+                return null;
+            }
+            for (int i = 0; i < numberOfChunks; i++) {
+                if ((bitmap[i >>> 3] & (1 << (i & 7))) != 0) {
+                    metadata.downloadedChunk(i);
+                }
+            }
+            return create(metadata, null, journalFilePath, copyFilePath);
+        }
+        if ((!hasTail && version != VERSION_WITHOUT_TAIL) || journalLength != headerSize + bodySize(numberOfChunks)) {
+            return null;
+        }
+
+        ProgressJournal journal = map(journalFilePath, metadata, headerSize, validator);
+        if (journal != null) {
+            for (int i = 0; i < numberOfChunks; i++) {
+                if ((journal.body.get(i >>> 3) & (1 << (i & 7))) != 0) {
+                    metadata.downloadedChunk(i);
+                }
+            }
+        }
+        return journal;
+    }
+
+
+    /* Function maps the bitmaps and checksums of a journal file.
+     * Input: The journal's path, the metadata it belongs to, the size of its header and its validator.
+     * Output: The opened journal or null if an error occurred.
+     */
+    private static ProgressJournal map(String journalFilePath, Metadata metadata, int headerSize, String validator) {
+        FileChannel journalChannel = null;
+        try {
+            journalChannel = FileChannel.open(Paths.get(journalFilePath), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer body = journalChannel.map(FileChannel.MapMode.READ_WRITE, headerSize,
+                    bodySize(metadata.getLength()));
+            return new ProgressJournal(journalChannel, body, metadata, validator);
+        } catch (IOException e) {
+            if (journalChannel != null) {
+                try {
+                    journalChannel.close();
+                } catch (IOException ignored) {
+                }
+            }
+            return null;
+        }
+    }
+
+
+    /* Function records a chunk written to the .tmp file and its checksum, both in the metadata and in the mapped
+     * body. The checksum is written before the chunk's bit, so a recorded chunk never has a stale checksum.
+     * Input: An integer corresponding to the chunk's location in the array and the CRC32C checksum of its data.
+     */
+    synchronized void record(int chunkID, int checksum) {
+        this.metadata.downloadedChunk(chunkID);
+        int index = chunkID >>> 3;
+        byte bit = (byte) (1 << (chunkID & 7));
+        this.body.putInt(this.checksumsOffset + chunkID * Integer.BYTES, checksum);
+        this.body.put(this.checksummedOffset + index, (byte) (this.body.get(this.checksummedOffset + index) | bit));
+        this.body.put(index, (byte) (this.body.get(index) | bit));
+    }
+
+
+    /* Function records a chunk written to the .tmp file in the metadata alone, until its data is forced to the
+     * storage device and it is recorded in the mapped body as well.
+     * Input: An integer corresponding to the chunk's location in the array.
+     */
+    synchronized void downloaded(int chunkID) {
+        this.metadata.downloadedChunk(chunkID);
+    }
+
+
+    /* Function records a chunk as missing again, both in the metadata and in the mapped body.
+     * Input: An integer corresponding to the chunk's location in the array.
+     */
+    synchronized void invalidate(int chunkID) {
+        this.metadata.missingChunk(chunkID);
+        int index = chunkID >>> 3;
+        byte bit = (byte) (1 << (chunkID & 7));
+        this.body.put(index, (byte) (this.body.get(index) & ~bit));
+        this.body.put(this.checksummedOffset + index, (byte) (this.body.get(this.checksummedOffset + index) & ~bit));
+    }
+
+
+    // Returns true if the checksum of a downloaded chunk was recorded.
+    synchronized boolean hasChecksum(int chunkID) {
+        return (this.body.get(this.checksummedOffset + (chunkID >>> 3)) & (1 << (chunkID & 7))) != 0;
+    }
+
+    // Returns the recorded CRC32C checksum of a chunk (meaningful only if hasChecksum returns true).
+    synchronized int getChecksum(int chunkID) {
+        return this.body.getInt(this.checksumsOffset + chunkID * Integer.BYTES);
+    }
+
+
+    /* Function flushes the recorded chunks from the page cache to the storage device.
+     */
+    synchronized void force() {
+        this.body.force();
+    }
+
+
+    /* Function closes the journal's file.
+     */
+    void close() throws IOException {
+        this.channel.close();
+    }
+
+
+    // Returns the metadata the journal records.
+    Metadata getMetadata() {
+        return this.metadata;
+    }
+
+    // Returns the validator of the remote file the chunks were downloaded from (null if none was recorded).
+    String getValidator() {
+        return this.validator;
+    }
+
+
+    // Returns the number of bytes the bitmaps and checksums of the given number of chunks take.
+    private static int bodySize(int numberOfChunks) {
+        return 2 * bitmapSize(numberOfChunks) + numberOfChunks * Integer.BYTES;
+    }
+
+    // Returns the number of bytes the bitmap of the given number of chunks takes.
+    private static int bitmapSize(int numberOfChunks) {
+        return (numberOfChunks + 7) >>> 3;
+    }
+}
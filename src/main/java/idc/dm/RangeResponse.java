@@ -0,0 +1,248 @@
+package idc.dm;
+
+import java.io.*;
+import java.net.SocketTimeoutException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/* The body of an answer to a range request, read a part at a time: a single part for a single range (or for ranges
+ * the server coalesced into one), or the parts of a multipart/byteranges answer, each with its own Content-Range.
+ */
+class RangeResponse {
+    private InputStream body;
+    private ReadableByteChannel channel;        // Channel over the body the parts' data is read from.
+    private String boundary;                    // The delimiter of the parts (null for a single part).
+    private long[] singlePart;                  // First and last byte of a single part (null once it was returned).
+    private Closeable connection;               // Closes the answer's connection at once (when it is aborted).
+    private ScheduledFuture<?> watchdog;        // Aborts the answer once no byte arrived for the read timeout (or null).
+    private volatile long lastReadTime;         // Time (System.nanoTime) a byte of the body last arrived.
+    private volatile boolean readTimerPaused;   // T: the reader waits for something else, the read timeout is not run.
+    private volatile boolean timedOut;          // T: the watchdog aborted the answer.
+    final int MAX_LINE_LENGTH = 8192;           // Longest header line accepted in a multipart answer.
+
+    // Checks the answers that have a read timeout, shared by all of them.
+    private static final ScheduledExecutorService WATCHDOGS = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "range-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private RangeResponse(InputStream body, Closeable connection, String boundary, long[] singlePart,
+                          long readTimeoutMillis) {
+        this.connection = connection;
+        this.boundary = boundary;
+        this.singlePart = singlePart;
+        if (readTimeoutMillis > 0) {
+            body = new WatchedInputStream(body);
+            this.lastReadTime = System.nanoTime();
+            long timeoutNanos = readTimeoutMillis * 1_000_000;
+            this.watchdog = WATCHDOGS.scheduleWithFixedDelay(() -> {
+                if (!this.readTimerPaused && System.nanoTime() - this.lastReadTime > timeoutNanos) {
+                    this.timedOut = true;
+                    this.abort();
+                }
+            }, readTimeoutMillis / 4, readTimeoutMillis / 4, TimeUnit.MILLISECONDS);
+        }
+        this.body = (boundary != null) ? new BufferedInputStream(body, 65536) : body;
+        this.channel = Channels.newChannel(this.body);
+    }
+
+
+    /* Function opens the body of a 206 (Partial Content) answer. With a read timeout, the answer is aborted once no
+     * byte of its body arrived for that long, so a server that stalls in the middle of the body fails the read
+     * (for clients that only time out the answer's headers).
+     * Input: The answer's Content-Type and Content-Range headers (may be null), its body, a way to close its
+     *        connection at once and the read timeout in milliseconds (0: none).
+     * Output: The answer, read part by part.
+     * Throws an IOException when a single part answer does not tell the range it holds.
+     */
+    static RangeResponse open(String contentType, String contentRange, InputStream body, Closeable connection,
+                              long readTimeoutMillis) throws IOException {
+        String boundary = parseBoundary(contentType);
+        if (boundary != null) {
+            return new RangeResponse(body, connection, boundary, null, readTimeoutMillis);
+        }
+        long[] part = MyTools.parseContentRange(contentRange);
+        if (part == null) {
+            body.close();
+            throw new IOException("Server answered without a valid Content-Range (" + contentRange + ").");
+        }
+        return new RangeResponse(body, connection, null, part, readTimeoutMillis);
+    }
+
+
+    /* Function moves to the next part of the answer. The data of the previous part must have been read entirely.
+     * Output: The first and last byte of the part (if no part is left, returns null).
+     * Throws an IOException when the multipart answer is malformed.
+     */
+    long[] nextPart() throws IOException {
+        if (this.boundary == null) {
+            long[] part = this.singlePart;
+            this.singlePart = null;
+            return part;
+        }
+        String line;
+        do {
+            line = this.readLine();
+        } while (line.isEmpty());
+        if (!line.startsWith("--" + this.boundary)) {
+            throw new IOException("Malformed multipart/byteranges answer.");
+        }
+        if (line.startsWith("--" + this.boundary + "--")) {
+            return null;
+        }
+        long[] part = null;
+        while (!(line = this.readLine()).isEmpty()) {
+            int separator = line.indexOf(':');
+            if (separator != -1 && line.substring(0, separator).trim().equalsIgnoreCase("Content-Range")) {
+                part = MyTools.parseContentRange(line.substring(separator + 1));
+            }
+        }
+        if (part == null) {
+            throw new IOException("A part of the multipart/byteranges answer has no valid Content-Range.");
+        }
+        return part;
+    }
+
+
+    /* Function reads and drops bytes of the current part (data the server sent that is not needed).
+     * Input: The number of bytes.
+     */
+    void skip(long bytes) throws IOException {
+        this.body.skipNBytes(bytes);
+    }
+
+
+    // Returns the channel the data of the current part is read from.
+    ReadableByteChannel getChannel() {
+        return this.channel;
+    }
+
+
+    // Stops the clock of the read timeout while the reader waits for something other than the answer (e.g. for the
+    // rate limit), so the wait does not time the answer out.
+    void pauseReadTimer() {
+        this.readTimerPaused = true;
+    }
+
+    // Restarts the clock of the read timeout once the reader reads the answer again.
+    void resumeReadTimer() {
+        this.lastReadTime = System.nanoTime();
+        this.readTimerPaused = false;
+    }
+
+
+    // Closes the answer's body.
+    void close() throws IOException {
+        this.stopWatchdog();
+        this.channel.close();
+    }
+
+    // Closes the answer's connection without reading the rest of the body, failing a read blocked on it (may be
+    // called by another thread).
+    void abort() {
+        this.stopWatchdog();
+        try {
+            this.connection.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+
+    // Stops checking the answer's read timeout.
+    private void stopWatchdog() {
+        if (this.watchdog != null) {
+            this.watchdog.cancel(false);
+        }
+    }
+
+
+    // Reads a line of the multipart delimiters and headers (without its line break).
+    private String readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = this.body.read()) != '\n') {
+            if (b == -1) {
+                throw new EOFException("Connection closed in the middle of a multipart/byteranges answer.");
+            }
+            if (line.size() == MAX_LINE_LENGTH) {
+                throw new IOException("Malformed multipart/byteranges answer.");
+            }
+            line.write(b);
+        }
+        String text = line.toString(StandardCharsets.ISO_8859_1);
+        return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
+    }
+
+
+    // Returns the boundary of a multipart/byteranges Content-Type (or null if it is not one).
+    private static String parseBoundary(String contentType) {
+        if (contentType == null || !contentType.trim().toLowerCase().startsWith("multipart/byteranges")) {
+            return null;
+        }
+        for (String parameter : contentType.split(";")) {
+            int separator = parameter.indexOf('=');
+            if (separator != -1 && parameter.substring(0, separator).trim().equalsIgnoreCase("boundary")) {
+                String boundary = parameter.substring(separator + 1).trim();
+                if (boundary.length() >= 2 && boundary.startsWith("\"") && boundary.endsWith("\"")) {
+                    boundary = boundary.substring(1, boundary.length() - 1);
+                }
+                return boundary.isEmpty() ? null : boundary;
+            }
+        }
+        return null;
+    }
+
+
+    // The body of an answer with a read timeout: records the time bytes arrive at, and fails the reads the watchdog
+    // aborted with a timeout.
+    private class WatchedInputStream extends FilterInputStream {
+
+        WatchedInputStream(InputStream body) {
+            super(body);
+        }
+
+        public int read() throws IOException {
+            try {
+                return this.arrived(super.read());
+            } catch (IOException e) {
+                throw this.failure(e);
+            }
+        }
+
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            try {
+                return this.arrived(super.read(buffer, offset, length));
+            } catch (IOException e) {
+                throw this.failure(e);
+            }
+        }
+
+        public long skip(long bytes) throws IOException {
+            try {
+                long skipped = super.skip(bytes);
+                lastReadTime = System.nanoTime();
+                return skipped;
+            } catch (IOException e) {
+                throw this.failure(e);
+            }
+        }
+
+        private int arrived(int result) throws IOException {
+            if (result == -1 && timedOut) {
+                throw this.failure(null);
+            }
+            lastReadTime = System.nanoTime();
+            return result;
+        }
+
+        private IOException failure(IOException e) {
+            return timedOut ? new SocketTimeoutException("Read timed out") : e;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package idc.dm;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/* A token bucket kept as a single atomic "theoretical arrival time": taking bytes moves it forward by their cost, so
+ * concurrent downloaders reserve their share with one compare-and-set and sleep outside of any lock.
+ */
+class RateLimiter {
+    private volatile long bytesPerSecond;   // The limit (0 or less means unlimited). May be changed at any time.
+    private AtomicLong arrivalTime;         // Time (System.nanoTime) at which the bytes taken so far are paid for.
+    final long BURST_NANOS = 200_000_000L;  // Allowing bursts of up to 0.2 seconds worth of bytes.
+
+    RateLimiter(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.arrivalTime = new AtomicLong(System.nanoTime());
+    }
+
+
+    /* Function takes bytes from the bucket, sleeping until they are paid for if they go beyond the limit.
+     * Input: The number of bytes about to be read.
+     */
+    void acquire(long bytes) throws InterruptedException {
+        long limit = this.bytesPerSecond;
+        if (limit <= 0) {
+            return;
+        }
+        long cost = (long) (bytes * 1e9 / limit);
+        long now = System.nanoTime();
+        long previous;
+        long next;
+        do {
+            previous = this.arrivalTime.get();
+            next = Math.max(previous, now) + cost;
+        } while (!this.arrivalTime.compareAndSet(previous, next));
+
+        long waitNanos = next - now - BURST_NANOS;
+        if (waitNanos > 0) {
+            Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+        }
+    }
+
+
+    // Sets the limit in bytes per second (0 or less means unlimited).
+    void setBytesPerSecond(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    // Returns the limit in bytes per second (0 or less means unlimited).
+    long getBytesPerSecond() {
+        return this.bytesPerSecond;
+    }
+}
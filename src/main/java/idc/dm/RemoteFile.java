@@ -0,0 +1,150 @@
+package idc.dm;
+
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+class RemoteFile {
+    private long contentLength;         // Length in bytes of the file.
+    private String digestAlgorithm;     // Algorithm of the digest the server gave ("SHA-256" or "MD5", null if none).
+    private byte[] digest;              // The digest of the whole file the server gave (null if none).
+    private String validator;           // The file's strong ETag, or else its Last-Modified date (null if none).
+    private boolean notModified;        // T: the server answered a conditional probe that the file did not change.
+
+    private RemoteFile(long contentLength) {
+        this.contentLength = contentLength;
+    }
+
+
+    /* Function reads the details of the file from the answer to a probe (a HEAD request or a request for its first
+     * byte). A whole file digest is taken from a Digest or Repr-Digest header (SHA-256 preferred over MD5), or from a
+     * Content-MD5 header of a complete (200) answer. A 304 (Not Modified) answer to a conditional probe tells only
+     * that the file did not change (its length is unknown).
+     * Input: The answer's status code and headers.
+     * Output: The details of the file (if the answer does not tell the file's length, returns null).
+     */
+    static RemoteFile fromResponse(int statusCode, Map<String, List<String>> headers) {
+        if (statusCode == 304) {
+            RemoteFile remoteFile = new RemoteFile(-1);
+            remoteFile.notModified = true;
+            remoteFile.validator = validatorOf(headers);
+            return remoteFile;
+        }
+        long contentLength = -1;
+        try {
+            if (statusCode == 206) {
+                contentLength = MyTools.parseContentRangeLength(header(headers, "Content-Range"));
+            } else if (statusCode == 200 && header(headers, "Content-Length") != null) {
+                contentLength = Long.parseLong(header(headers, "Content-Length").trim());
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        if (contentLength < 0) {
+            return null;
+        }
+
+        RemoteFile remoteFile = new RemoteFile(contentLength);
+        remoteFile.validator = validatorOf(headers);
+        remoteFile.parseDigests(header(headers, "Digest"), "=");
+        remoteFile.parseDigests(header(headers, "Repr-Digest"), "=:");
+        if (remoteFile.digest == null && statusCode == 200 && header(headers, "Content-MD5") != null) {
+            remoteFile.setDigest("MD5", header(headers, "Content-MD5"));
+        }
+        return remoteFile;
+    }
+
+
+    /* Function reads the validator of a file from the headers of an answer: its ETag, unless it is a weak one
+     * (W/"..."), which only tells that two files are equivalent and cannot validate ranges, or else its
+     * Last-Modified date.
+     * Input: The answer's headers.
+     * Output: The validator (if the answer has none, returns null).
+     */
+    static String validatorOf(Map<String, List<String>> headers) {
+        String etag = header(headers, "ETag");
+        if (etag != null && !etag.trim().startsWith("W/") && !etag.isBlank()) {
+            return etag.trim();
+        }
+        String lastModified = header(headers, "Last-Modified");
+        return (lastModified == null || lastModified.isBlank()) ? null : lastModified.trim();
+    }
+
+
+    /* Function tells the header a validator is sent in: If-None-Match for an ETag (which is quoted) and
+     * If-Modified-Since for a Last-Modified date.
+     * Input: The validator.
+     * Output: The name of the header.
+     */
+    static String conditionHeader(String validator) {
+        return validator.startsWith("\"") ? "If-None-Match" : "If-Modified-Since";
+    }
+
+
+    /* Function reads the digests listed in a Digest ("SHA-256=base64, ...") or Repr-Digest ("sha-256=:base64:, ...")
+     * header, keeping SHA-256 over MD5.
+     * Input: The header's value (may be null) and the separator between an algorithm and its value.
+     */
+    private void parseDigests(String value, String separator) {
+        if (value == null) {
+            return;
+        }
+        for (String entry : value.split(",")) {
+            int index = entry.indexOf(separator);
+            if (index == -1) {
+                continue;
+            }
+            String algorithm = entry.substring(0, index).trim().toUpperCase();
+            String encoded = entry.substring(index + separator.length()).trim().replace(":", "");
+            if (algorithm.equals("SHA-256") || (algorithm.equals("MD5") && this.digest == null)) {
+                this.setDigest(algorithm, encoded);
+            }
+        }
+    }
+
+
+    // Sets the digest of the file from its base64 encoding (ignored if it is not valid base64).
+    private void setDigest(String algorithm, String encoded) {
+        try {
+            this.digest = Base64.getDecoder().decode(encoded.trim());
+            this.digestAlgorithm = algorithm;
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
+
+    // Returns a header's first value, ignoring the case of its name (or null if it is missing).
+    private static String header(Map<String, List<String>> headers, String name) {
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey()) && !header.getValue().isEmpty()) {
+                return header.getValue().get(0);
+            }
+        }
+        return null;
+    }
+
+
+    // Returns the length in bytes of the file.
+    long getContentLength() {
+        return this.contentLength;
+    }
+
+    // Returns the algorithm of the digest the server gave (null if none).
+    String getDigestAlgorithm() {
+        return this.digestAlgorithm;
+    }
+
+    // Returns the digest of the whole file the server gave (null if none).
+    byte[] getDigest() {
+        return this.digest;
+    }
+
+    // Returns the file's strong ETag, or else its Last-Modified date (null if the server gave none).
+    String getValidator() {
+        return this.validator;
+    }
+
+    // Returns true if the server answered a conditional probe that the file did not change (its length is unknown).
+    boolean isNotModified() {
+        return this.notModified;
+    }
+}
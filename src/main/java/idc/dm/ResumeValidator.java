@@ -0,0 +1,102 @@
+package idc.dm;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/* Checks the chunks a broken download recorded against their checksums before it is resumed, since a crash may
+ * leave torn writes in the .tmp file the journal already recorded. The file is split into windows that are
+ * memory-mapped and checked in parallel by the fork-join pool, and a chunk that does not match is recorded as
+ * missing again. Chunks recorded without a checksum (by older versions) are trusted.
+ */
+class ResumeValidator extends RecursiveTask<Integer> {
+    private static final long serialVersionUID = 1L;
+    static final long WINDOW_SIZE = 64L << 20;    // Mapping and checking the .tmp file in windows of 64MB.
+    private FileChannel channel;                  // The channel of the .tmp file.
+    private ProgressJournal journal;
+    private Metadata metadata;
+    private int firstChunk;                       // The first chunk of the task's windows.
+    private int lastChunk;                        // The last chunk of the task's windows.
+    private int windowChunks;                     // Number of chunks in a window.
+
+    private ResumeValidator(FileChannel channel, ProgressJournal journal, int firstChunk, int lastChunk, int windowChunks) {
+        this.channel = channel;
+        this.journal = journal;
+        this.metadata = journal.getMetadata();
+        this.firstChunk = firstChunk;
+        this.lastChunk = lastChunk;
+        this.windowChunks = windowChunks;
+    }
+
+
+    /* Function checks every recorded chunk of the .tmp file against its checksum, recording mismatching chunks as
+     * missing again.
+     * Input: The channel of the .tmp file and the journal of the download.
+     * Output: The number of chunks recorded as missing again (if the .tmp file could not be read, returns -1).
+     */
+    static int validate(FileChannel channel, ProgressJournal journal) {
+        Metadata metadata = journal.getMetadata();
+        int windowChunks = (int) Math.max(1, WINDOW_SIZE / metadata.getChunkSize());
+        int invalidChunks;
+        try {
+            invalidChunks = ForkJoinPool.commonPool().invoke(
+                    new ResumeValidator(channel, journal, 0, metadata.getLength() - 1, windowChunks));
+        } catch (UncheckedIOException e) {
+            return -1;
+        }
+        if (invalidChunks > 0) {
+            journal.force();
+        }
+        return invalidChunks;
+    }
+
+
+    /* Function checks the task's windows, splitting them in two halves (of whole windows) while there is more than one.
+     * Output: The number of chunks recorded as missing again.
+     */
+    protected Integer compute() {
+        int numberOfWindows = (this.lastChunk - this.firstChunk + this.windowChunks) / this.windowChunks;
+        if (numberOfWindows > 1) {
+            int middleChunk = this.firstChunk + (numberOfWindows / 2) * this.windowChunks;
+            ResumeValidator firstHalf = new ResumeValidator(this.channel, this.journal, this.firstChunk, middleChunk - 1, this.windowChunks);
+            ResumeValidator secondHalf = new ResumeValidator(this.channel, this.journal, middleChunk, this.lastChunk, this.windowChunks);
+            firstHalf.fork();
+            return secondHalf.compute() + firstHalf.join();
+        }
+        try {
+            return this.validateWindow();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    /* Function checks the recorded chunks of a single window, mapping the window only if it has one.
+     * Output: The number of chunks recorded as missing again.
+     */
+    private int validateWindow() throws IOException {
+        MappedByteBuffer window = null;
+        long windowStart = this.metadata.getChunkOffset(this.firstChunk);
+        int invalidChunks = 0;
+        for (int i = this.firstChunk; i <= this.lastChunk; i++) {
+            if (!this.metadata.isChunkDownloaded(i) || !this.journal.hasChecksum(i)) {
+                continue;
+            }
+            if (window == null) {
+                long windowLength = this.metadata.getChunkOffset(this.lastChunk)
+                        + this.metadata.getChunkBytes(this.lastChunk) - windowStart;
+                window = this.channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowLength);
+            }
+            ByteBuffer data = window.slice((int) (this.metadata.getChunkOffset(i) - windowStart), this.metadata.getChunkBytes(i));
+            if (MyTools.checksum(data) != this.journal.getChecksum(i)) {
+                this.journal.invalidate(i);
+                invalidChunks++;
+            }
+        }
+        return invalidChunks;
+    }
+}
@@ -0,0 +1,220 @@
+package idc.dm;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Handing out the chunks of a download to its downloaders: missing runs, taking over the back half of a slow range,
+// retrying failed ranges and duplicating straggling ranges in the endgame.
+class ChunkSchedulerTest {
+    private DownloadManager manager;
+    private FileDownload download;          // The download the scheduler reports its lines to.
+    private List<String> lines;             // The lines the scheduler reported.
+
+    @BeforeEach
+    void setUp() throws Exception {
+        this.lines = new CopyOnWriteArrayList<>();
+        DownloadListener listener = new DownloadListener() {
+            public void message(String fileName, String line) {
+                lines.add(line);
+            }
+
+            public void error(String fileName, String line) {
+                lines.add(line);
+            }
+        };
+        DownloadOptions options = DownloadOptions.of(1);
+        this.manager = DownloadManager.create(options);
+        this.download = new FileDownload(new URL[]{new URL("http://127.0.0.1/file.bin")}, options, this.manager, listener);
+    }
+
+    @AfterEach
+    void tearDown() {
+        this.manager.close();
+    }
+
+
+    // The missing chunks are handed out in runs of up to a quarter of them per connection, around downloaded chunks.
+    @Test
+    void missingRunsAreHandedOutInOrder() throws Exception {
+        Metadata metadata = new Metadata(10, 65536, 65536);
+        metadata.downloadedChunk(3);
+        ChunkScheduler scheduler = new ChunkScheduler(metadata, 1, false, this.download);
+
+        assertRange(0, 2, scheduler.nextRange(1));
+        assertRange(4, 6, scheduler.nextRange(2));
+        assertRange(7, 9, scheduler.nextRange(3));
+        assertTrue(scheduler.isDrained());
+    }
+
+    // An idle downloader takes over the back half of the range with the most chunks left, whose owner stops before it.
+    @Test
+    void idleDownloaderTakesOverBackHalfOfSlowestRange() throws Exception {
+        Metadata metadata = new Metadata(40, 65536, 65536);
+        ChunkScheduler scheduler = new ChunkScheduler(metadata, 1, false, this.download);
+        ChunkRange slow = scheduler.nextRange(1);
+        assertRange(0, 9, slow);
+        for (int owner = 2; owner <= 4; owner++) {
+            finish(scheduler, metadata, scheduler.nextRange(owner));
+        }
+        assertTrue(scheduler.claimChunk(slow, 0));
+
+        ChunkRange stolen = scheduler.nextRange(2);
+        assertRange(5, 9, stolen);
+        assertEquals(4, slow.getLastChunk());
+        assertTrue(this.lines.contains("[2] Took over chunks 5-9 from [1]"));
+        assertFalse(scheduler.claimChunk(slow, 5));
+        assertTrue(scheduler.claimChunk(slow, 1));
+        for (int chunkID = 5; chunkID <= 8; chunkID++) {
+            assertTrue(scheduler.claimChunk(stolen, chunkID));
+        }
+
+        // The slow range has the most chunks left now. Ranges with a single chunk left are not split (and it is not
+        // the endgame yet).
+        ChunkRange again = scheduler.nextRange(3);
+        assertRange(3, 4, again);
+        assertEquals(2, slow.getLastChunk());
+        assertTrue(scheduler.claimChunk(slow, 2));
+        assertTrue(scheduler.claimChunk(again, 3));
+        assertNull(scheduler.nextRange(4));
+    }
+
+    // A failed range is handed out again from the chunk it failed at, once its backoff is over.
+    @Test
+    void failedRangeIsRetriedAfterBackoff() throws Exception {
+        Metadata metadata = new Metadata(8, 65536, 65536);
+        ChunkScheduler scheduler = new ChunkScheduler(metadata, 1, false, this.download);
+        ChunkRange failed = scheduler.nextRange(1);
+        assertRange(0, 1, failed);
+        for (int owner = 2; owner <= 4; owner++) {
+            finish(scheduler, metadata, scheduler.nextRange(owner));
+        }
+        scheduler.claimChunk(failed, 0);
+        completeChunk(scheduler, metadata, failed, 0);
+        scheduler.claimChunk(failed, 1);
+        scheduler.failedRange(failed, 1);
+        assertFalse(scheduler.isDrained());
+
+        long start = System.nanoTime();
+        ChunkRange retried = scheduler.nextRange(2);
+        assertTrue(System.nanoTime() - start >= scheduler.BASE_BACKOFF_NANOS / 2 - 10_000_000);
+        assertRange(1, 1, retried);
+        assertTrue(scheduler.isDrained());
+    }
+
+    // Once stopped, no range is handed out and the active ranges are cancelled.
+    @Test
+    void stopCancelsActiveRanges() throws Exception {
+        ChunkScheduler scheduler = new ChunkScheduler(new Metadata(8, 65536, 65536), 1, false, this.download);
+        ChunkRange range = scheduler.nextRange(1);
+        scheduler.stop();
+        assertTrue(range.isCancelled());
+        assertFalse(scheduler.claimChunk(range, 0));
+        assertNull(scheduler.nextRange(2));
+        assertTrue(scheduler.isStopped());
+    }
+
+    // In the endgame, the copy of the straggling range completes its chunk first: the owner's read is cancelled and
+    // only the copy's chunk is written.
+    @Test
+    void firstCopyToCompleteIsWritten() throws Exception {
+        Metadata metadata = new Metadata(8, 65536, 65536);
+        ChunkScheduler scheduler = new ChunkScheduler(metadata, 1, false, this.download);
+        ChunkRange straggler = this.endgame(scheduler, metadata);
+        ChunkRange copy = scheduler.nextRange(2);
+        assertRange(0, 1, copy);
+        assertSame(straggler, copy.getCopy());
+        assertSame(copy, straggler.getCopy());
+        assertTrue(this.lines.contains("[2] Also downloading chunks 0-1 of [1] (endgame)"));
+
+        assertTrue(scheduler.claimChunk(copy, 0));
+        assertTrue(scheduler.completeChunk(copy, 0));
+        assertTrue(straggler.isCancelled());
+        assertFalse(scheduler.completeChunk(straggler, 0));
+        assertFalse(scheduler.claimChunk(straggler, 1));
+        assertTrue(scheduler.claimChunk(copy, 1));
+    }
+
+    // A chunk one copy completed is not claimed by the other copy, even before it is written; of a chunk both copies
+    // read, only the first to complete is written.
+    @Test
+    void completedChunkIsNotClaimedAgain() throws Exception {
+        Metadata metadata = new Metadata(8, 65536, 65536);
+        ChunkScheduler scheduler = new ChunkScheduler(metadata, 1, false, this.download);
+        ChunkRange straggler = this.endgame(scheduler, metadata);
+        ChunkRange copy = scheduler.nextRange(2);
+
+        assertTrue(scheduler.completeChunk(straggler, 0));
+        assertFalse(copy.isCancelled());
+        assertFalse(scheduler.claimChunk(copy, 0));
+        assertTrue(scheduler.claimChunk(straggler, 1));
+        assertTrue(scheduler.claimChunk(copy, 1));
+        assertTrue(scheduler.completeChunk(straggler, 1));
+        assertTrue(copy.isCancelled());
+        assertFalse(scheduler.completeChunk(copy, 1));
+    }
+
+    // A range that fails while its copy downloads the rest of it is not retried, and no range is copied before the
+    // endgame.
+    @Test
+    void failedRangeCoveredByCopyIsNotRetried() throws Exception {
+        Metadata metadata = new Metadata(8, 65536, 65536);
+        ChunkScheduler scheduler = new ChunkScheduler(metadata, 1, false, this.download);
+        ChunkRange straggler = this.endgame(scheduler, metadata);
+        ChunkRange copy = scheduler.nextRange(2);
+        assertNotNull(copy);
+        scheduler.failedRange(straggler, 0);
+        assertTrue(scheduler.isDrained());
+        assertFalse(copy.isCancelled());
+
+        Metadata before = new Metadata(8, 65536, 65536);
+        ChunkScheduler early = new ChunkScheduler(before, 1, false, this.download);
+        ChunkRange range = early.nextRange(1);
+        assertTrue(early.claimChunk(range, 0));
+        for (int owner = 2; owner <= 3; owner++) {
+            finish(early, before, early.nextRange(owner));
+        }
+        ChunkRange last = early.nextRange(4);
+        assertTrue(early.claimChunk(last, 6));
+        assertNull(early.nextRange(5));
+    }
+
+
+    // Hands out the chunks of a download of 8 chunks (in runs of 2) and downloads all of them but the first range,
+    // whose owner reads its first chunk. Returns that range.
+    private ChunkRange endgame(ChunkScheduler scheduler, Metadata metadata) throws InterruptedException {
+        ChunkRange straggler = scheduler.nextRange(1);
+        assertRange(0, 1, straggler);
+        for (int owner = 2; owner <= 4; owner++) {
+            finish(scheduler, metadata, scheduler.nextRange(owner));
+        }
+        assertTrue(scheduler.claimChunk(straggler, 0));
+        return straggler;
+    }
+
+    // Reads every chunk of a range and releases it.
+    private static void finish(ChunkScheduler scheduler, Metadata metadata, ChunkRange range) {
+        for (int chunkID = range.getFirstChunk(); chunkID <= range.getLastChunk(); chunkID++) {
+            assertTrue(scheduler.claimChunk(range, chunkID));
+            completeChunk(scheduler, metadata, range, chunkID);
+        }
+        scheduler.finishedRange(range);
+    }
+
+    // Completes a chunk its owner read and records it as written.
+    private static void completeChunk(ChunkScheduler scheduler, Metadata metadata, ChunkRange range, int chunkID) {
+        assertTrue(scheduler.completeChunk(range, chunkID));
+        metadata.downloadedChunk(chunkID);
+    }
+
+    private static void assertRange(int firstChunk, int lastChunk, ChunkRange range) {
+        assertNotNull(range);
+        assertEquals(firstChunk + "-" + lastChunk, range.getFirstChunk() + "-" + range.getLastChunk());
+    }
+}
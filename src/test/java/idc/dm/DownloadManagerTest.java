@@ -0,0 +1,87 @@
+package idc.dm;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// The library's public API: invalid options and resources are refused with exceptions, and a download that could not
+// produce its file fails.
+class DownloadManagerTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void invalidOptionsAreRefused() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> DownloadOptions.parse(new String[]{"http://127.0.0.1/file.bin", "--write-mode=paper"}));
+        assertEquals("Option --write-mode=paper is invalid.", e.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> DownloadOptions.parse(new String[]{"--batch"}));
+        assertThrows(IllegalArgumentException.class, () -> DownloadOptions.parse(new String[]{"list.txt", "0"}));
+        assertThrows(IllegalArgumentException.class, () -> DownloadOptions.parse(new String[]{"list.txt", "2", "3"}));
+        assertThrows(IllegalArgumentException.class, () -> DownloadOptions.of(0));
+        assertThrows(IllegalArgumentException.class, () -> DownloadOptions.of(2, "--chunk-size=2G"));
+        assertThrows(IllegalArgumentException.class, () -> DownloadOptions.of(2, "chunk-size=1M"));
+
+        DownloadOptions options = DownloadOptions.parse(new String[]{"list.txt", "--auto-connections", "--timeout=2.5"});
+        assertEquals("list.txt", options.getSource());
+        assertEquals(DownloadOptions.DEFAULT_AUTO_MAX_CONNECTIONS, options.getMaxConnections());
+        assertEquals(2500, options.getTimeout());
+    }
+
+    @Test
+    void unopenableCacheDirectoryIsRefused() throws Exception {
+        Path notADirectory = Files.createFile(this.directory.resolve("cache"));
+        DownloadOptions options = DownloadOptions.of(1, "--cache-dir=" + notADirectory);
+        IOException e = assertThrows(IOException.class, () -> DownloadManager.create(options));
+        assertEquals("Cache directory could not be opened.", e.getMessage());
+    }
+
+    // A download whose .tmp file cannot be renamed to the file's name (a directory took the name meanwhile) fails.
+    @Test
+    void downloadFailsWhenFileCannotBeRenamed() throws Exception {
+        byte[] content = new byte[128 * 1024];
+        new Random(2).nextBytes(content);
+        String fileName = "unrenamed.bin";
+        File file = new File(fileName);
+        CountDownLatch started = new CountDownLatch(1);
+        List<String> errors = new CopyOnWriteArrayList<>();
+        DownloadListener listener = new DownloadListener() {
+            public void message(String name, String line) {
+                if (line.startsWith("Downloading")) {
+                    started.countDown();
+                }
+            }
+
+            public void error(String name, String line) {
+                errors.add(line);
+            }
+        };
+
+        try (RangeServer server = new RangeServer(fileName, content);
+             DownloadManager manager = DownloadManager.create(DownloadOptions.of(1, "--limit-rate=128K"))) {
+            Future<Boolean> result = manager.download(new URL[]{server.getURL()}, listener);
+            assertTrue(started.await(30, TimeUnit.SECONDS));
+            assertTrue(file.mkdir());
+            assertFalse(result.get(60, TimeUnit.SECONDS));
+            assertEquals(List.of(".tmp file refuses to be renamed."), errors);
+        } finally {
+            file.delete();
+            new File(fileName + ".tmp").delete();
+            new File(fileName + ".metadata.tmp").delete();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package idc.dm;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Files of several TB: chunk offsets, ranges and the journal are 64-bit, checked against sparse .tmp files.
+class LargeFileTest {
+    static final long FILE_SIZE = (3L << 40) + 12345;           // A 3TB file whose last chunk is partial.
+    static final int CHUNK_SIZE = 1 << 20;
+    static final int TAIL_CHUNK_SIZE = 1 << 16;
+    static final long TAIL_BYTES = 1L << 30;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void layoutCoversTheWholeFile() {
+        Metadata metadata = Metadata.forFile(FILE_SIZE, CHUNK_SIZE, TAIL_CHUNK_SIZE, TAIL_BYTES, ProgressJournal.MAX_CHUNKS);
+        assertNotNull(metadata);
+        int lastChunk = metadata.getLength() - 1;
+        assertEquals(FILE_SIZE, metadata.getChunkOffset(lastChunk) + metadata.getChunkBytes(lastChunk));
+        assertEquals(12345, metadata.getLastChunkInBytes());
+        long tailStart = (long) metadata.getFirstTailChunk() * CHUNK_SIZE;
+        assertEquals(TAIL_BYTES - CHUNK_SIZE + 12345, FILE_SIZE - tailStart);
+
+        for (long offset : new long[]{0, (1L << 31) - 1, 1L << 31, 1L << 32, 1L << 40, tailStart, FILE_SIZE - 1}) {
+            int chunkID = metadata.getChunkAt(offset);
+            long chunkStart = metadata.getChunkOffset(chunkID);
+            assertTrue(chunkStart <= offset && offset < chunkStart + metadata.getChunkBytes(chunkID), "offset " + offset);
+        }
+    }
+
+    @Test
+    void rangesPastFourGigabytes() {
+        Metadata metadata = Metadata.forFile(FILE_SIZE, CHUNK_SIZE, TAIL_CHUNK_SIZE, TAIL_BYTES, ProgressJournal.MAX_CHUNKS);
+        int chunkID = metadata.getChunkAt(1L << 40);
+        metadata.downloadedChunk(chunkID + 1);
+        String ranges = metadata.getRanges(chunkID, chunkID + 2);
+        long start = 1L << 40;
+        assertEquals("(" + start + " - " + (start + CHUNK_SIZE - 1) + "), (" + (start + 2L * CHUNK_SIZE) + " - "
+                + (start + 3L * CHUNK_SIZE - 1) + ")", ranges);
+        assertEquals(start + "-" + (start + CHUNK_SIZE - 1) + ", " + (start + 2L * CHUNK_SIZE) + "-"
+                + (start + 3L * CHUNK_SIZE - 1), MyTools.convertRangesDisplayToRequest(ranges));
+
+        int lastChunk = metadata.getLength() - 1;
+        assertEquals("(" + (FILE_SIZE - metadata.getLastChunkInBytes()) + " - " + (FILE_SIZE - 1) + ")",
+                metadata.getRanges(lastChunk, lastChunk));
+    }
+
+    @Test
+    void tooManyChunksAreRefused() {
+        assertNull(Metadata.forFile(1L << 50, 1 << 18, 1 << 18, 0, ProgressJournal.MAX_CHUNKS));
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void writesChunksPastFourGigabytesIntoSparseFile(boolean mapped) throws Exception {
+        String tmpPath = directory.resolve("large.bin.tmp").toString();
+        String journalPath = directory.resolve("large.bin.metadata.tmp").toString();
+        String copyPath = directory.resolve("large.bin.metadata_copy.tmp").toString();
+        Metadata metadata = Metadata.forFile(FILE_SIZE, CHUNK_SIZE, TAIL_CHUNK_SIZE, TAIL_BYTES, ProgressJournal.MAX_CHUNKS);
+        ProgressJournal journal = ProgressJournal.create(metadata, "\"etag\"", journalPath, copyPath);
+        assertNotNull(journal);
+        int[] chunks = {0, metadata.getChunkAt((1L << 31) - 1), metadata.getChunkAt(1L << 31),
+                metadata.getChunkAt(1L << 32), metadata.getChunkAt(1L << 40), metadata.getLength() - 1};
+        ByteBuffer[] written = new ByteBuffer[chunks.length];
+
+        try (RandomAccessFile tmpFile = MyTools.createRandomAccessFile(tmpPath, FILE_SIZE)) {
+            assertNotNull(tmpFile);
+            assertEquals(FILE_SIZE, tmpFile.length());
+            ChunkWriter writer = new ChunkWriter(tmpFile.getChannel(), journal, null, null, mapped, 0, 0, percent -> {});
+            Random random = new Random(chunks.length);
+            for (int i = 0; i < chunks.length; i++) {
+                byte[] data = new byte[metadata.getChunkBytes(chunks[i])];
+                random.nextBytes(data);
+                written[i] = ByteBuffer.wrap(data);
+                writer.write(new Chunk(chunks[i], ByteBuffer.wrap(data), MyTools.checksum(written[i])));
+            }
+            writer.flush();
+
+            for (int i = 0; i < chunks.length; i++) {
+                ByteBuffer read = ByteBuffer.allocate(written[i].capacity());
+                tmpFile.getChannel().read(read, metadata.getChunkOffset(chunks[i]));
+                assertEquals(written[i], read.flip(), "chunk " + chunks[i]);
+            }
+        } finally {
+            journal.close();
+        }
+
+        // The journal records the chunks and their checksums at their 64-bit offsets.
+        ProgressJournal reopened = ProgressJournal.open(journalPath, copyPath);
+        assertNotNull(reopened);
+        try {
+            Metadata recorded = reopened.getMetadata();
+            assertEquals(metadata.getLength(), recorded.getLength());
+            assertEquals(chunks.length, recorded.getLength() - recorded.getRemainingChunkNumber());
+            assertEquals(FILE_SIZE, recorded.getChunkOffset(recorded.getLength() - 1) + recorded.getLastChunkInBytes());
+            for (int i = 0; i < chunks.length; i++) {
+                assertTrue(recorded.isChunkDownloaded(chunks[i]));
+                assertTrue(reopened.hasChecksum(chunks[i]));
+                assertEquals(MyTools.checksum(written[i]), reopened.getChecksum(chunks[i]));
+            }
+            assertEquals("\"etag\"", reopened.getValidator());
+        } finally {
+            reopened.close();
+        }
+    }
+}
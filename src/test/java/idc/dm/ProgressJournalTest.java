@@ -0,0 +1,242 @@
+package idc.dm;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Opening the journals of every version (and the metadata files of older versions), converting the old formats.
+class ProgressJournalTest {
+
+    @TempDir
+    Path directory;
+
+    // A metadata file serialized by the first version (before the classes moved to the idc.dm package): 10 chunks of
+    // 256KB, the last of 1000 bytes, chunks 0, 1 and 5 downloaded.
+    @Test
+    void legacyMetadataFileIsConverted() throws Exception {
+        Path journalPath = directory.resolve("file.bin.metadata.tmp");
+        try (InputStream fixture = getClass().getResourceAsStream("legacy.metadata.tmp")) {
+            assertNotNull(fixture);
+            Files.copy(fixture, journalPath);
+        }
+
+        ProgressJournal journal = ProgressJournal.open(journalPath.toString(), copyPath());
+        assertNotNull(journal);
+        try {
+            Metadata metadata = journal.getMetadata();
+            assertEquals(10, metadata.getLength());
+            assertEquals(262144, metadata.getChunkSize());
+            assertEquals(1000, metadata.getLastChunkInBytes());
+            for (int i = 0; i < 10; i++) {
+                assertEquals(i == 0 || i == 1 || i == 5, metadata.isChunkDownloaded(i), "chunk " + i);
+                assertFalse(journal.hasChecksum(i));
+            }
+            assertNull(journal.getValidator());
+        } finally {
+            journal.close();
+        }
+
+        // The file was converted to the current journal format.
+        ByteBuffer header = ByteBuffer.wrap(Files.readAllBytes(journalPath));
+        assertEquals(ProgressJournal.MAGIC, header.getInt());
+        assertEquals(ProgressJournal.VERSION, header.getInt());
+        ProgressJournal reopened = ProgressJournal.open(journalPath.toString(), copyPath());
+        assertNotNull(reopened);
+        assertEquals(3, reopened.getMetadata().getLength() - reopened.getMetadata().getRemainingChunkNumber());
+        reopened.close();
+    }
+
+    // Recorded chunks are kept in the mapped bitmap across runs, chunks recorded in the metadata alone (not forced yet)
+    // are not, and an invalidated chunk is missing again.
+    @Test
+    void recordedChunksSurviveReopening() throws Exception {
+        Metadata metadata = new Metadata(20, 65536, 16, 4096, 100);
+        metadata.downloadedChunk(3);
+        ProgressJournal journal = ProgressJournal.create(metadata, "\"v1\"", journalPath(), copyPath());
+        assertNotNull(journal);
+        journal.record(0, 10);
+        journal.record(17, 11);
+        journal.record(19, 12);
+        journal.downloaded(5);
+        journal.invalidate(17);
+        journal.force();
+        journal.close();
+
+        ProgressJournal reopened = ProgressJournal.open(journalPath(), copyPath());
+        assertNotNull(reopened);
+        try {
+            Metadata recorded = reopened.getMetadata();
+            assertEquals(20, recorded.getLength());
+            assertEquals(65536, recorded.getChunkSize());
+            assertEquals(16, recorded.getFirstTailChunk());
+            assertEquals(4096, recorded.getTailChunkSize());
+            assertEquals(100, recorded.getLastChunkInBytes());
+            for (int i = 0; i < 20; i++) {
+                assertEquals(i == 0 || i == 3 || i == 19, recorded.isChunkDownloaded(i), "chunk " + i);
+            }
+            assertEquals("\"v1\"", reopened.getValidator());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    // A journal of version 1 (a bitmap alone) is converted to the current version, keeping its chunks.
+    @Test
+    void versionOneJournalIsConverted() throws Exception {
+        ByteBuffer content = ByteBuffer.allocate(ProgressJournal.HEADER_SIZE_WITHOUT_TAIL + 2);
+        content.putInt(ProgressJournal.MAGIC).putInt(ProgressJournal.VERSION_WITHOUT_CHECKSUMS).putInt(12);
+        content.putInt(262144).putInt(7);
+        content.put((byte) 0b1000_0101).put((byte) 0b0000_1000);
+        Files.write(directory.resolve("file.bin.metadata.tmp"), content.array());
+
+        ProgressJournal journal = ProgressJournal.open(journalPath(), copyPath());
+        assertNotNull(journal);
+        try {
+            Metadata metadata = journal.getMetadata();
+            assertEquals(12, metadata.getLength());
+            assertEquals(262144, metadata.getChunkSize());
+            assertEquals(7, metadata.getLastChunkInBytes());
+            assertEquals(12, metadata.getFirstTailChunk());
+            for (int i = 0; i < 12; i++) {
+                assertEquals(i == 0 || i == 2 || i == 7 || i == 11, metadata.isChunkDownloaded(i), "chunk " + i);
+            }
+            assertNull(journal.getValidator());
+        } finally {
+            journal.close();
+        }
+        ByteBuffer header = ByteBuffer.wrap(Files.readAllBytes(directory.resolve("file.bin.metadata.tmp")));
+        assertEquals(ProgressJournal.MAGIC, header.getInt());
+        assertEquals(ProgressJournal.VERSION, header.getInt());
+    }
+
+    // A journal of an unknown version, with a wrong magic or a length that does not fit its header is not opened.
+    @Test
+    void damagedJournalsAreRefused() throws Exception {
+        ProgressJournal journal = ProgressJournal.create(new Metadata(20, 65536, 100), null, journalPath(), copyPath());
+        assertNotNull(journal);
+        journal.close();
+        byte[] valid = Files.readAllBytes(directory.resolve("file.bin.metadata.tmp"));
+
+        byte[] truncated = Arrays.copyOf(valid, valid.length - 1);
+        byte[] otherMagic = valid.clone();
+        otherMagic[0] ^= 1;
+        byte[] unknownVersion = valid.clone();
+        ByteBuffer.wrap(unknownVersion).putInt(Integer.BYTES, ProgressJournal.VERSION + 1);
+        byte[] noChunks = valid.clone();
+        ByteBuffer.wrap(noChunks).putInt(2 * Integer.BYTES, 0);
+        for (byte[] damaged : new byte[][]{truncated, otherMagic, unknownVersion, noChunks, new byte[3]}) {
+            Files.write(directory.resolve("file.bin.metadata.tmp"), damaged);
+            assertNull(ProgressJournal.open(journalPath(), copyPath()));
+        }
+        assertNull(ProgressJournal.open(directory.resolve("missing.metadata.tmp").toString(), copyPath()));
+    }
+
+    // The checksum of a recorded chunk is kept across runs, a chunk recorded in the metadata alone has none yet and
+    // an invalidated chunk loses its checksum.
+    @Test
+    void checksumsSurviveReopening() throws Exception {
+        ProgressJournal journal = ProgressJournal.create(new Metadata(20, 65536, 100), null, journalPath(), copyPath());
+        assertNotNull(journal);
+        journal.record(1, 0xCAFEBABE);
+        journal.record(8, -1);
+        journal.record(9, 0x12345678);
+        journal.downloaded(2);
+        journal.invalidate(9);
+        assertTrue(journal.hasChecksum(1));
+        assertFalse(journal.hasChecksum(2));
+        assertFalse(journal.hasChecksum(9));
+        journal.close();
+
+        ProgressJournal reopened = ProgressJournal.open(journalPath(), copyPath());
+        assertNotNull(reopened);
+        try {
+            for (int i = 0; i < 20; i++) {
+                assertEquals(i == 1 || i == 8, reopened.hasChecksum(i), "chunk " + i);
+            }
+            assertEquals(0xCAFEBABE, reopened.getChecksum(1));
+            assertEquals(-1, reopened.getChecksum(8));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    // Journals of versions 2 (no tail of finer chunks) and 3 (no validator) are opened as is, with their checksums,
+    // and stay in their version when chunks are recorded.
+    @ParameterizedTest
+    @ValueSource(ints = {ProgressJournal.VERSION_WITHOUT_TAIL, ProgressJournal.VERSION_WITHOUT_VALIDATOR})
+    void olderJournalsAreOpenedWithTheirChecksums(int version) throws Exception {
+        boolean hasTail = (version == ProgressJournal.VERSION_WITHOUT_VALIDATOR);
+        int headerSize = hasTail ? ProgressJournal.HEADER_SIZE_WITHOUT_VALIDATOR : ProgressJournal.HEADER_SIZE_WITHOUT_TAIL;
+        ByteBuffer content = ByteBuffer.allocate(headerSize + 2 + 2 + 10 * Integer.BYTES);
+        content.putInt(ProgressJournal.MAGIC).putInt(version).putInt(10).putInt(65536).putInt(1);
+        if (hasTail) {
+            content.putInt(8).putInt(4096);
+        }
+        content.put((byte) 0b0001_0001).put((byte) 0b10);     // Chunks 0, 4 and 9 were downloaded,
+        content.put((byte) 0b0000_0001).put((byte) 0b10);     // chunks 0 and 9 with a checksum.
+        content.putInt(0xAAAA).putInt(0).putInt(0).putInt(0).putInt(0);
+        content.putInt(0).putInt(0).putInt(0).putInt(0).putInt(0xBBBB);
+        Files.write(directory.resolve("file.bin.metadata.tmp"), content.array());
+
+        ProgressJournal journal = ProgressJournal.open(journalPath(), copyPath());
+        assertNotNull(journal);
+        Metadata metadata = journal.getMetadata();
+        assertEquals(hasTail ? 8 : 10, metadata.getFirstTailChunk());
+        assertEquals(hasTail ? 4096 : 65536, metadata.getTailChunkSize());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i == 0 || i == 4 || i == 9, metadata.isChunkDownloaded(i), "chunk " + i);
+            assertEquals(i == 0 || i == 9, journal.hasChecksum(i), "chunk " + i);
+        }
+        assertEquals(0xAAAA, journal.getChecksum(0));
+        assertEquals(0xBBBB, journal.getChecksum(9));
+        assertNull(journal.getValidator());
+        journal.record(5, 0xCCCC);
+        journal.close();
+
+        ByteBuffer header = ByteBuffer.wrap(Files.readAllBytes(directory.resolve("file.bin.metadata.tmp")));
+        assertEquals(version, header.getInt(Integer.BYTES));
+        ProgressJournal reopened = ProgressJournal.open(journalPath(), copyPath());
+        assertNotNull(reopened);
+        assertTrue(reopened.getMetadata().isChunkDownloaded(5));
+        assertEquals(0xCCCC, reopened.getChecksum(5));
+        assertEquals(0xAAAA, reopened.getChecksum(0));
+        reopened.close();
+    }
+
+    // The chunks of a version 1 journal were recorded without a checksum, so they are not checked when resumed.
+    @Test
+    void versionOneChunksHaveNoChecksum() throws Exception {
+        ByteBuffer content = ByteBuffer.allocate(ProgressJournal.HEADER_SIZE_WITHOUT_TAIL + 1);
+        content.putInt(ProgressJournal.MAGIC).putInt(ProgressJournal.VERSION_WITHOUT_CHECKSUMS).putInt(8);
+        content.putInt(65536).putInt(65536).put((byte) 0xFF);
+        Files.write(directory.resolve("file.bin.metadata.tmp"), content.array());
+
+        ProgressJournal journal = ProgressJournal.open(journalPath(), copyPath());
+        assertNotNull(journal);
+        assertTrue(journal.getMetadata().isDownloadComplete());
+        for (int i = 0; i < 8; i++) {
+            assertFalse(journal.hasChecksum(i), "chunk " + i);
+        }
+        journal.close();
+    }
+
+
+    // Returns the path of the journal.
+    private String journalPath() {
+        return this.directory.resolve("file.bin.metadata.tmp").toString();
+    }
+
+    // Returns the path of the copy file the conversions write.
+    private String copyPath() {
+        return this.directory.resolve("file.bin.metadata_copy.tmp").toString();
+    }
+}
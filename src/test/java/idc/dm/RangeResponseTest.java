@@ -0,0 +1,124 @@
+package idc.dm;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Reading the answers to range requests: a single part, the parts of a multipart/byteranges answer, and the read
+// timeout of an answer.
+class RangeResponseTest {
+
+    @Test
+    void singlePartIsReadFromContentRange() throws IOException {
+        RangeResponse response = open(null, "bytes 100-104/1000", "abcde");
+        assertArrayEquals(new long[]{100, 104}, response.nextPart());
+        assertEquals("abcde", read(response, 5));
+        assertNull(response.nextPart());
+        response.close();
+    }
+
+    @Test
+    void singlePartWithoutContentRangeIsRefused() {
+        assertThrows(IOException.class, () -> open(null, null, "abcde"));
+        assertThrows(IOException.class, () -> open("application/octet-stream", "bytes 5-1/10", "abcde"));
+    }
+
+    // The parts of a multipart answer, with a quoted boundary, other headers and data the reader skips.
+    @Test
+    void multipartPartsAreReadInOrder() throws IOException {
+        String body = "\r\n--THIS_STRING\r\n"
+                + "Content-Type: application/octet-stream\r\n"
+                + "content-range: bytes 0-3/100\r\n"
+                + "\r\n"
+                + "0123\r\n"
+                + "--THIS_STRING\r\n"
+                + "Content-Range:bytes 50-57/100\r\n"
+                + "\r\n"
+                + "abcdefgh\r\n"
+                + "--THIS_STRING--\r\n";
+        RangeResponse response = open("multipart/byteranges; boundary=\"THIS_STRING\"", null, body);
+
+        assertArrayEquals(new long[]{0, 3}, response.nextPart());
+        assertEquals("0123", read(response, 4));
+        assertArrayEquals(new long[]{50, 57}, response.nextPart());
+        response.skip(4);
+        assertEquals("efgh", read(response, 4));
+        assertNull(response.nextPart());
+        response.close();
+    }
+
+    // Some servers end the lines of the delimiters and headers with a bare line feed.
+    @Test
+    void multipartLinesMayEndWithLineFeed() throws IOException {
+        String body = "--b\nContent-Range: bytes 10-11/20\n\nxy\n--b--\n";
+        RangeResponse response = open("Multipart/ByteRanges;boundary=b", "bytes 0-19/20", body);
+        assertArrayEquals(new long[]{10, 11}, response.nextPart());
+        assertEquals("xy", read(response, 2));
+        assertNull(response.nextPart());
+    }
+
+    @Test
+    void malformedMultipartIsRefused() throws IOException {
+        RangeResponse otherBoundary = open("multipart/byteranges; boundary=b", null,
+                "--c\r\nContent-Range: bytes 0-1/2\r\n\r\nxy\r\n--c--\r\n");
+        assertThrows(IOException.class, otherBoundary::nextPart);
+
+        RangeResponse noContentRange = open("multipart/byteranges; boundary=b", null,
+                "--b\r\nContent-Type: text/plain\r\n\r\nxy\r\n--b--\r\n");
+        assertThrows(IOException.class, noContentRange::nextPart);
+
+        RangeResponse longLine = open("multipart/byteranges; boundary=b", null, "x".repeat(10000) + "\r\n");
+        assertThrows(IOException.class, longLine::nextPart);
+    }
+
+    // A connection closed in the middle of the part headers fails the read, instead of ending the answer.
+    @Test
+    void truncatedMultipartFails() throws IOException {
+        RangeResponse response = open("multipart/byteranges; boundary=b", null, "--b\r\nContent-Range: bytes 0-1");
+        assertThrows(EOFException.class, response::nextPart);
+    }
+
+    // A body no byte of which arrives for the read timeout fails the read, unless the reader was waiting for
+    // something else meanwhile (e.g. for the rate limit).
+    @Test
+    void readTimeoutIsNotRunWhilePaused() throws Exception {
+        try (ServerSocket listener = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+             Socket client = new Socket(listener.getInetAddress(), listener.getLocalPort());
+             Socket server = listener.accept()) {
+            RangeResponse response = RangeResponse.open(null, "bytes 0-1/2", client.getInputStream(), client, 200);
+            response.pauseReadTimer();
+            Thread.sleep(600);
+            response.resumeReadTimer();
+            server.getOutputStream().write('x');
+            assertArrayEquals(new long[]{0, 1}, response.nextPart());
+            ByteBuffer data = ByteBuffer.allocate(2);
+            assertThrows(SocketTimeoutException.class, () -> MyTools.readFully(response.getChannel(), data));
+            assertEquals(1, data.position());
+        }
+    }
+
+
+    // Returns an answer over the given body, without a read timeout.
+    private static RangeResponse open(String contentType, String contentRange, String body) throws IOException {
+        InputStream stream = new ByteArrayInputStream(body.getBytes(StandardCharsets.ISO_8859_1));
+        return RangeResponse.open(contentType, contentRange, stream, stream, 0);
+    }
+
+    // Returns the next bytes of the current part as text.
+    private static String read(RangeResponse response, int length) throws IOException {
+        ByteBuffer data = ByteBuffer.allocate(length);
+        MyTools.readFully(response.getChannel(), data);
+        return new String(data.array(), StandardCharsets.ISO_8859_1);
+    }
+}
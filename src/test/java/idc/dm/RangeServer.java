@@ -0,0 +1,68 @@
+package idc.dm;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// A local HTTP server of a single file, answering HEAD requests and single range requests (with an ETag), for the
+// tests that download a file end to end.
+class RangeServer implements AutoCloseable {
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+    private HttpServer server;
+    private String path;
+    private byte[] content;
+
+    RangeServer(String fileName, byte[] content) throws IOException {
+        this.path = "/" + fileName;
+        this.content = content;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext(this.path, this::answer);
+        this.server.setExecutor(Executors.newCachedThreadPool());
+        this.server.start();
+    }
+
+
+    // Answers a request with the whole file, or with the requested range of it.
+    private void answer(HttpExchange exchange) throws IOException {
+        long first = 0;
+        long last = this.content.length - 1;
+        int status = 200;
+        exchange.getResponseHeaders().set("ETag", "\"v1\"");
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        Matcher matcher = (range == null) ? null : RANGE.matcher(range);
+        if (matcher != null && matcher.matches()) {
+            first = Long.parseLong(matcher.group(1));
+            last = matcher.group(2).isEmpty() ? last : Math.min(last, Long.parseLong(matcher.group(2)));
+            status = 206;
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + first + "-" + last + "/" + this.content.length);
+        }
+        boolean head = exchange.getRequestMethod().equals("HEAD");
+        exchange.sendResponseHeaders(status, head ? -1 : last - first + 1);
+        try (OutputStream body = exchange.getResponseBody()) {
+            if (!head) {
+                body.write(this.content, (int) first, (int) (last - first + 1));
+            }
+        } catch (IOException ignored) {
+            // The client aborted the answer.
+        }
+    }
+
+
+    // Returns the URL of the file.
+    URL getURL() throws MalformedURLException {
+        return new URL("http://127.0.0.1:" + this.server.getAddress().getPort() + this.path);
+    }
+
+    public void close() {
+        this.server.stop(0);
+    }
+}
@@ -0,0 +1,47 @@
+package idc.dm;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Downloading with a rate limit whose waits are longer than the read timeout, through both engines.
+class RateLimitTest {
+
+    // Every 64KB chunk waits about 2 seconds for the 32KB/s limit, twice the timeout: the wait must not time out the
+    // answer the chunk is read from.
+    @ParameterizedTest
+    @ValueSource(strings = {"httpclient", "urlconnection"})
+    void waitsForRateLimitAreNotReadTimeouts(String engine) throws Exception {
+        byte[] content = new byte[128 * 1024];
+        new Random(1).nextBytes(content);
+        String fileName = "limited-" + engine + ".bin";
+        File file = new File(fileName);
+        List<String> errors = new CopyOnWriteArrayList<>();
+        DownloadListener listener = new DownloadListener() {
+            public void error(String name, String line) {
+                errors.add(line);
+            }
+        };
+
+        DownloadOptions options = DownloadOptions.of(1, "--engine=" + engine, "--chunk-size=64K",
+                "--limit-rate=32K", "--timeout=1");
+        try (RangeServer server = new RangeServer(fileName, content);
+             DownloadManager manager = DownloadManager.create(options)) {
+            boolean downloaded = manager.download(new URL[]{server.getURL()}, listener).get(60, TimeUnit.SECONDS);
+            assertTrue(downloaded, errors.toString());
+            assertEquals(List.of(), errors);
+            assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+        } finally {
+            file.delete();
+        }
+    }
+}